@@ -82,6 +82,60 @@ public class ADConfiguration extends LdapConfiguration {
 
     private String groupOwnerReferenceAttribute = "managedBy";
 
+    private int poolMinSize = 1;
+
+    private int poolMaxSize = 10;
+
+    private long poolMaxWait = 30000L;
+
+    private long poolIdleTimeout = 300000L;
+
+    private boolean useBindPool = false;
+
+    private int bindPoolMaxSize = 5;
+
+    private long bindPoolMaxWait = 30000L;
+
+    private long bindPoolIdleTimeout = 300000L;
+
+    private boolean fastBind = false;
+
+    private int searchThreads = 1;
+
+    private boolean pagePrefetch = false;
+
+    private boolean adaptivePageSize = false;
+
+    private boolean ldapGroupsFromMemberOf = true;
+
+    private int syncQueueSize = 1000;
+
+    private int dirSyncMaxAttrCount = 0;
+
+    private int syncThreads = 1;
+
+    private int hydrationBatchSize = 100;
+
+    private int hydrationThreads = 1;
+
+    private boolean changeNotification = false;
+
+    private long changeNotificationMaxWait = 0L;
+
+    private boolean usnChangedSync = false;
+
+    private boolean incrementalMembership = false;
+
+    private boolean fastInitialLoad = false;
+
+    private String checkpointJournal;
+
+    private int membershipBufferSize = 0;
+
+    private long membershipBufferMaxWait = 1000L;
+
+    private int batchThreads = 4;
+
     private final ObjectClassMappingConfig accountConfig = new ObjectClassMappingConfig(
             ObjectClass.ACCOUNT,
             CollectionUtil.newList("top", "person", "organizationalPerson", "user"),
@@ -351,6 +405,276 @@ public class ADConfiguration extends LdapConfiguration {
         this.startSyncFromToday = startSyncFromToday;
     }
 
+    @ConfigurationProperty(displayMessageKey = "poolMinSize.display",
+            helpMessageKey = "poolMinSize.help", order = 18)
+    public int getPoolMinSize() {
+        return poolMinSize;
+    }
+
+    public void setPoolMinSize(final int poolMinSize) {
+        this.poolMinSize = poolMinSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "poolMaxSize.display",
+            helpMessageKey = "poolMaxSize.help", order = 19)
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    public void setPoolMaxSize(final int poolMaxSize) {
+        this.poolMaxSize = poolMaxSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "poolMaxWait.display",
+            helpMessageKey = "poolMaxWait.help", order = 20)
+    public long getPoolMaxWait() {
+        return poolMaxWait;
+    }
+
+    public void setPoolMaxWait(final long poolMaxWait) {
+        this.poolMaxWait = poolMaxWait;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "poolIdleTimeout.display",
+            helpMessageKey = "poolIdleTimeout.help", order = 21)
+    public long getPoolIdleTimeout() {
+        return poolIdleTimeout;
+    }
+
+    public void setPoolIdleTimeout(final long poolIdleTimeout) {
+        this.poolIdleTimeout = poolIdleTimeout;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "useBindPool.display",
+            helpMessageKey = "useBindPool.help", order = 22)
+    public boolean isUseBindPool() {
+        return useBindPool;
+    }
+
+    public void setUseBindPool(final boolean useBindPool) {
+        this.useBindPool = useBindPool;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "bindPoolMaxSize.display",
+            helpMessageKey = "bindPoolMaxSize.help", order = 23)
+    public int getBindPoolMaxSize() {
+        return bindPoolMaxSize;
+    }
+
+    public void setBindPoolMaxSize(final int bindPoolMaxSize) {
+        this.bindPoolMaxSize = bindPoolMaxSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "bindPoolMaxWait.display",
+            helpMessageKey = "bindPoolMaxWait.help", order = 24)
+    public long getBindPoolMaxWait() {
+        return bindPoolMaxWait;
+    }
+
+    public void setBindPoolMaxWait(final long bindPoolMaxWait) {
+        this.bindPoolMaxWait = bindPoolMaxWait;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "bindPoolIdleTimeout.display",
+            helpMessageKey = "bindPoolIdleTimeout.help", order = 25)
+    public long getBindPoolIdleTimeout() {
+        return bindPoolIdleTimeout;
+    }
+
+    public void setBindPoolIdleTimeout(final long bindPoolIdleTimeout) {
+        this.bindPoolIdleTimeout = bindPoolIdleTimeout;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "fastBind.display",
+            helpMessageKey = "fastBind.help", order = 26)
+    public boolean isFastBind() {
+        return fastBind;
+    }
+
+    public void setFastBind(final boolean fastBind) {
+        this.fastBind = fastBind;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "searchThreads.display",
+            helpMessageKey = "searchThreads.help", order = 27)
+    public int getSearchThreads() {
+        return searchThreads;
+    }
+
+    public void setSearchThreads(final int searchThreads) {
+        this.searchThreads = searchThreads;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "pagePrefetch.display",
+            helpMessageKey = "pagePrefetch.help", order = 28)
+    public boolean isPagePrefetch() {
+        return pagePrefetch;
+    }
+
+    public void setPagePrefetch(final boolean pagePrefetch) {
+        this.pagePrefetch = pagePrefetch;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "adaptivePageSize.display",
+            helpMessageKey = "adaptivePageSize.help", order = 29)
+    public boolean isAdaptivePageSize() {
+        return adaptivePageSize;
+    }
+
+    public void setAdaptivePageSize(final boolean adaptivePageSize) {
+        this.adaptivePageSize = adaptivePageSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "ldapGroupsFromMemberOf.display",
+            helpMessageKey = "ldapGroupsFromMemberOf.help", order = 30)
+    public boolean isLdapGroupsFromMemberOf() {
+        return ldapGroupsFromMemberOf;
+    }
+
+    public void setLdapGroupsFromMemberOf(final boolean ldapGroupsFromMemberOf) {
+        this.ldapGroupsFromMemberOf = ldapGroupsFromMemberOf;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "syncQueueSize.display",
+            helpMessageKey = "syncQueueSize.help", order = 31)
+    public int getSyncQueueSize() {
+        return syncQueueSize;
+    }
+
+    public void setSyncQueueSize(final int syncQueueSize) {
+        this.syncQueueSize = syncQueueSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "dirSyncMaxAttrCount.display",
+            helpMessageKey = "dirSyncMaxAttrCount.help", order = 32)
+    public int getDirSyncMaxAttrCount() {
+        return dirSyncMaxAttrCount;
+    }
+
+    public void setDirSyncMaxAttrCount(final int dirSyncMaxAttrCount) {
+        this.dirSyncMaxAttrCount = dirSyncMaxAttrCount;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "syncThreads.display",
+            helpMessageKey = "syncThreads.help", order = 33)
+    public int getSyncThreads() {
+        return syncThreads;
+    }
+
+    public void setSyncThreads(final int syncThreads) {
+        this.syncThreads = syncThreads;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "hydrationBatchSize.display",
+            helpMessageKey = "hydrationBatchSize.help", order = 34)
+    public int getHydrationBatchSize() {
+        return hydrationBatchSize;
+    }
+
+    public void setHydrationBatchSize(final int hydrationBatchSize) {
+        this.hydrationBatchSize = hydrationBatchSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "hydrationThreads.display",
+            helpMessageKey = "hydrationThreads.help", order = 35)
+    public int getHydrationThreads() {
+        return hydrationThreads;
+    }
+
+    public void setHydrationThreads(final int hydrationThreads) {
+        this.hydrationThreads = hydrationThreads;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "changeNotification.display",
+            helpMessageKey = "changeNotification.help", order = 36)
+    public boolean isChangeNotification() {
+        return changeNotification;
+    }
+
+    public void setChangeNotification(final boolean changeNotification) {
+        this.changeNotification = changeNotification;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "changeNotificationMaxWait.display",
+            helpMessageKey = "changeNotificationMaxWait.help", order = 37)
+    public long getChangeNotificationMaxWait() {
+        return changeNotificationMaxWait;
+    }
+
+    public void setChangeNotificationMaxWait(final long changeNotificationMaxWait) {
+        this.changeNotificationMaxWait = changeNotificationMaxWait;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "usnChangedSync.display",
+            helpMessageKey = "usnChangedSync.help", order = 38)
+    public boolean isUsnChangedSync() {
+        return usnChangedSync;
+    }
+
+    public void setUsnChangedSync(final boolean usnChangedSync) {
+        this.usnChangedSync = usnChangedSync;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "incrementalMembership.display",
+            helpMessageKey = "incrementalMembership.help", order = 39)
+    public boolean isIncrementalMembership() {
+        return incrementalMembership;
+    }
+
+    public void setIncrementalMembership(final boolean incrementalMembership) {
+        this.incrementalMembership = incrementalMembership;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "fastInitialLoad.display",
+            helpMessageKey = "fastInitialLoad.help", order = 40)
+    public boolean isFastInitialLoad() {
+        return fastInitialLoad;
+    }
+
+    public void setFastInitialLoad(final boolean fastInitialLoad) {
+        this.fastInitialLoad = fastInitialLoad;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "checkpointJournal.display",
+            helpMessageKey = "checkpointJournal.help", order = 41)
+    public String getCheckpointJournal() {
+        return checkpointJournal;
+    }
+
+    public void setCheckpointJournal(final String checkpointJournal) {
+        this.checkpointJournal = checkpointJournal;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "membershipBufferSize.display",
+            helpMessageKey = "membershipBufferSize.help", order = 42)
+    public int getMembershipBufferSize() {
+        return membershipBufferSize;
+    }
+
+    public void setMembershipBufferSize(final int membershipBufferSize) {
+        this.membershipBufferSize = membershipBufferSize;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "membershipBufferMaxWait.display",
+            helpMessageKey = "membershipBufferMaxWait.help", order = 43)
+    public long getMembershipBufferMaxWait() {
+        return membershipBufferMaxWait;
+    }
+
+    public void setMembershipBufferMaxWait(final long membershipBufferMaxWait) {
+        this.membershipBufferMaxWait = membershipBufferMaxWait;
+    }
+
+    @ConfigurationProperty(displayMessageKey = "batchThreads.display",
+            helpMessageKey = "batchThreads.help", order = 44)
+    public int getBatchThreads() {
+        return batchThreads;
+    }
+
+    public void setBatchThreads(final int batchThreads) {
+        this.batchThreads = batchThreads;
+    }
+
     @Override
     public final void setUidAttribute(final String uidAttribute) {
         setAccountUserNameAttributes("sAMAccountName", uidAttribute);
@@ -122,6 +122,87 @@ public class ADConfigurationBeanInfo extends SimpleBeanInfo {
             props.add(new PropertyDescriptor("groupMemberReferenceAttribute", ADConfiguration.class));
             // startSyncFromToday
             props.add(new PropertyDescriptor("startSyncFromToday", ADConfiguration.class));
+
+            // poolMinSize
+            props.add(new PropertyDescriptor("poolMinSize", ADConfiguration.class));
+
+            // poolMaxSize
+            props.add(new PropertyDescriptor("poolMaxSize", ADConfiguration.class));
+
+            // poolMaxWait
+            props.add(new PropertyDescriptor("poolMaxWait", ADConfiguration.class));
+
+            // poolIdleTimeout
+            props.add(new PropertyDescriptor("poolIdleTimeout", ADConfiguration.class));
+
+            // useBindPool
+            props.add(new PropertyDescriptor("useBindPool", ADConfiguration.class));
+
+            // bindPoolMaxSize
+            props.add(new PropertyDescriptor("bindPoolMaxSize", ADConfiguration.class));
+
+            // bindPoolMaxWait
+            props.add(new PropertyDescriptor("bindPoolMaxWait", ADConfiguration.class));
+
+            // bindPoolIdleTimeout
+            props.add(new PropertyDescriptor("bindPoolIdleTimeout", ADConfiguration.class));
+
+            // fastBind
+            props.add(new PropertyDescriptor("fastBind", ADConfiguration.class));
+
+            // searchThreads
+            props.add(new PropertyDescriptor("searchThreads", ADConfiguration.class));
+
+            // pagePrefetch
+            props.add(new PropertyDescriptor("pagePrefetch", ADConfiguration.class));
+
+            // adaptivePageSize
+            props.add(new PropertyDescriptor("adaptivePageSize", ADConfiguration.class));
+
+            // ldapGroupsFromMemberOf
+            props.add(new PropertyDescriptor("ldapGroupsFromMemberOf", ADConfiguration.class));
+
+            // syncQueueSize
+            props.add(new PropertyDescriptor("syncQueueSize", ADConfiguration.class));
+
+            // dirSyncMaxAttrCount
+            props.add(new PropertyDescriptor("dirSyncMaxAttrCount", ADConfiguration.class));
+
+            // syncThreads
+            props.add(new PropertyDescriptor("syncThreads", ADConfiguration.class));
+
+            // hydrationBatchSize
+            props.add(new PropertyDescriptor("hydrationBatchSize", ADConfiguration.class));
+
+            // hydrationThreads
+            props.add(new PropertyDescriptor("hydrationThreads", ADConfiguration.class));
+
+            // changeNotification
+            props.add(new PropertyDescriptor("changeNotification", ADConfiguration.class));
+
+            // changeNotificationMaxWait
+            props.add(new PropertyDescriptor("changeNotificationMaxWait", ADConfiguration.class));
+
+            // usnChangedSync
+            props.add(new PropertyDescriptor("usnChangedSync", ADConfiguration.class));
+
+            // incrementalMembership
+            props.add(new PropertyDescriptor("incrementalMembership", ADConfiguration.class));
+
+            // fastInitialLoad
+            props.add(new PropertyDescriptor("fastInitialLoad", ADConfiguration.class));
+
+            // checkpointJournal
+            props.add(new PropertyDescriptor("checkpointJournal", ADConfiguration.class));
+
+            // membershipBufferSize
+            props.add(new PropertyDescriptor("membershipBufferSize", ADConfiguration.class));
+
+            // membershipBufferMaxWait
+            props.add(new PropertyDescriptor("membershipBufferMaxWait", ADConfiguration.class));
+
+            // batchThreads
+            props.add(new PropertyDescriptor("batchThreads", ADConfiguration.class));
         } catch (IntrospectionException e) {
             LOG.error(e, "Failure retrieving properties");
             props.clear();
@@ -27,16 +27,26 @@ import static org.identityconnectors.common.StringUtil.isNotBlank;
 
 import com.sun.jndi.ldap.ctl.PasswordExpiredResponseControl;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
 import javax.naming.Context;
 import javax.naming.NamingException;
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.ldap.Control;
 import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapContext;
 import org.connid.bundles.ad.schema.ADSchema;
+import org.connid.bundles.ad.search.PageSizeController;
+import org.connid.bundles.ad.crud.GroupMembershipBuffer;
+import org.connid.bundles.ad.sync.ChangeNotifier;
+import org.connid.bundles.ad.util.ADContextPool;
+import org.connid.bundles.ad.util.FastBindRequest;
 import org.connid.bundles.ad.util.TrustAllSocketFactory;
 import org.connid.bundles.ldap.LdapConnection;
 import org.connid.bundles.ldap.LdapConnection.AuthenticationResult;
@@ -60,9 +70,47 @@ public class ADConnection extends LdapConnection {
     private static final String LDAP_BINARY_ATTRIBUTE =
             "java.naming.ldap.attributes.binary";
 
+    /**
+     * Sync context unused for less than this amount of milliseconds is reused without checking it.
+     */
+    private static final long SYNC_CTX_VALIDATION_INTERVAL = 30000L;
+
+    private static final String DEFAULT_QUERY_POLICY =
+            "CN=Default Query Policy,CN=Query-Policies,CN=Directory Service,CN=Windows NT,CN=Services,";
+
+    private static final String MAX_PAGE_SIZE = "MaxPageSize=";
+
+    /**
+     * Maximum number of search results buffered by JNDI before pausing the read from the connection.
+     */
+    private static final String REPLY_QUEUE_SIZE = "com.sun.jndi.ldap.search.replyQueueSize";
+
     private LdapContext initCtx = null;
 
-    private LdapContext syncCtx = null;
+    /**
+     * Contexts dedicated to DirSync, one per synchronized base context.
+     */
+    private final Map<String, LdapContext> syncCtxs = new HashMap<String, LdapContext>();
+
+    private final Map<String, Long> syncCtxsLastUsed = new HashMap<String, Long>();
+
+    private ADContextPool ctxPool = null;
+
+    /**
+     * Pool of connections used only to verify end-user credentials.
+     */
+    private ADContextPool bindPool = null;
+
+    /**
+     * Context borrowed from the pool by the current thread, if any.
+     */
+    private final ThreadLocal<LeasedContext> leasedCtx = new ThreadLocal<LeasedContext>();
+
+    private int maxPageSize = -1;
+
+    private ChangeNotifier changeNotifier = null;
+
+    private GroupMembershipBuffer membershipBuffer = null;
 
     private final ADSchema schema;
 
@@ -83,54 +131,414 @@ public class ADConnection extends LdapConnection {
             LOG.ok("Attempting to authenticate {0}", entryDN);
         }
 
-        final Pair<AuthenticationResult, LdapContext> pair = createContext(entryDN, password);
+        final AuthenticationResult authnResult;
 
-        if (pair.second != null) {
-            quietClose(pair.second);
+        if (config.isUseBindPool() || config.isFastBind()) {
+            authnResult = bind(entryDN, password);
+        } else {
+            final Pair<AuthenticationResult, LdapContext> pair = createContext(entryDN, password);
+
+            if (pair.second != null) {
+                quietClose(pair.second);
+            }
+
+            authnResult = pair.first;
         }
 
         if (LOG.isOk()) {
-            LOG.ok("Authentication result: {0}", pair.first);
+            LOG.ok("Authentication result: {0}", authnResult);
+        }
+
+        return authnResult;
+    }
+
+    /**
+     * Verify credentials by re-binding a pre-established connection taken from the bind pool.
+     *
+     * @param entryDN user DN.
+     * @param password user password.
+     * @return authentication result.
+     */
+    private AuthenticationResult bind(final String entryDN, final GuardedString password) {
+        if (password == null) {
+            return new AuthenticationResult(AuthenticationResultType.FAILED);
+        }
+
+        final ADContextPool pool = getBindPool();
+
+        final LdapContext ctx;
+        try {
+            ctx = pool.borrow();
+        } catch (NamingException e) {
+            return new AuthenticationResult(AuthenticationResultType.FAILED, e);
+        }
+
+        AuthenticationResult authnResult;
+        boolean reusable = false;
+
+        // never turned into a String: zeroed once the bind is over
+        final char[][] clear = new char[1][];
+
+        try {
+            ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+            ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, entryDN);
+
+            password.access(new Accessor() {
+
+                @Override
+                public void access(char[] clearChars) {
+                    clear[0] = clearChars.clone();
+                }
+            });
+            ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, clear[0]);
+
+            // LDAPv3 re-bind on the same connection
+            ctx.reconnect(null);
+            reusable = true;
+
+            authnResult = getAuthenticationResult(ctx.getResponseControls());
+        } catch (AuthenticationException e) {
+            authnResult = getAuthenticationResult(e);
+        } catch (NamingException e) {
+            authnResult = new AuthenticationResult(AuthenticationResultType.FAILED, e);
+        } finally {
+            if (clear[0] != null) {
+                Arrays.fill(clear[0], '\0');
+            }
+
+            try {
+                ctx.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+            } catch (NamingException e) {
+                reusable = false;
+            }
+
+            if (reusable) {
+                pool.release(ctx);
+            } else {
+                pool.invalidate(ctx);
+            }
+        }
+
+        return authnResult;
+    }
+
+    /**
+     * Get the pool of connections used to verify end-user credentials, creating it on first use.
+     *
+     * @return bind pool.
+     */
+    synchronized ADContextPool getBindPool() {
+        if (bindPool == null) {
+            bindPool = new ADContextPool(new ADContextPool.ContextFactory() {
+
+                @Override
+                public LdapContext createContext() throws NamingException {
+                    // anonymous: the connection (and TLS session) is established, binding is up to the user
+                    final LdapContext ctx = connect(null, null);
+
+                    if (config.isFastBind()) {
+                        // must be issued before any authenticated bind on this connection
+                        try {
+                            ctx.extendedOperation(new FastBindRequest());
+                        } catch (NamingException e) {
+                            quietClose(ctx);
+                            throw e;
+                        }
+                    }
+
+                    return ctx;
+                }
+
+                @Override
+                public boolean validateContext(final LdapContext ctx) {
+                    try {
+                        checkAlive(ctx);
+                        return true;
+                    } catch (NamingException e) {
+                        LOG.ok(e, "Pooled bind context validation failed");
+                        return false;
+                    }
+                }
+            },
+                    0,
+                    config.getBindPoolMaxSize(),
+                    config.getBindPoolMaxWait(),
+                    config.getBindPoolIdleTimeout());
         }
 
-        return pair.first;
+        return bindPool;
     }
 
     public ADSchema getADSchema() {
         return schema;
     }
 
-    public LdapContext getSyncContext(final Control[] control) {
-        return cloneContext(control);
+    /**
+     * Get the server's maximum page size, as read from the <tt>lDAPAdminLimits</tt> of the default query policy;
+     * AD default is returned if not readable.
+     *
+     * @return maximum page size.
+     */
+    public synchronized int getMaxPageSize() {
+        if (maxPageSize < 0) {
+            maxPageSize = PageSizeController.DEFAULT_MAX_PAGE_SIZE;
+
+            try {
+                final LdapContext ctx = getInitialContext();
+
+                final Attribute configNC = ctx.getAttributes("", new String[]{"configurationNamingContext"}).
+                        get("configurationNamingContext");
+
+                final Attribute limits = configNC == null
+                        ? null
+                        : ctx.getAttributes(DEFAULT_QUERY_POLICY + configNC.get(), new String[]{"lDAPAdminLimits"}).
+                        get("lDAPAdminLimits");
+
+                if (limits != null) {
+                    final NamingEnumeration<?> values = limits.getAll();
+                    while (values.hasMoreElements()) {
+                        final String limit = values.next().toString();
+                        if (limit.startsWith(MAX_PAGE_SIZE)) {
+                            maxPageSize = Integer.parseInt(limit.substring(MAX_PAGE_SIZE.length()).trim());
+                        }
+                    }
+                }
+            } catch (NamingException e) {
+                LOG.ok(e, "Could not read MaxPageSize, assuming {0}", maxPageSize);
+            } catch (NumberFormatException e) {
+                LOG.ok(e, "Invalid MaxPageSize, assuming {0}", maxPageSize);
+            }
+
+            if (LOG.isOk()) {
+                LOG.ok("Server MaxPageSize: {0}", maxPageSize);
+            }
+        }
+
+        return maxPageSize;
+    }
+
+    /**
+     * Get the long-lived context dedicated to DirSync searches below the given base context, with the given request
+     * controls set. Each base context gets its own connection, so that different base contexts can be synchronized
+     * concurrently. The context is (re-)created if not available or if found not alive after some inactivity.
+     *
+     * @param baseContextDn synchronized base context.
+     * @param control request controls.
+     * @return sync context.
+     */
+    public synchronized LdapContext getSyncContext(final String baseContextDn, final Control[] control) {
+        LdapContext syncCtx = syncCtxs.get(baseContextDn);
+
+        if (syncCtx != null
+                && System.currentTimeMillis() - syncCtxsLastUsed.get(baseContextDn) > SYNC_CTX_VALIDATION_INTERVAL) {
+            try {
+                syncCtx.setRequestControls(null);
+                checkAlive(syncCtx);
+            } catch (NamingException e) {
+                LOG.ok(e, "Sync context for {0} not alive anymore: reconnecting", baseContextDn);
+                invalidateSyncContext(baseContextDn);
+                syncCtx = null;
+            }
+        }
+
+        try {
+            if (syncCtx == null) {
+                syncCtx = connect(config.getPrincipal(), config.getCredentials());
+                syncCtxs.put(baseContextDn, syncCtx);
+
+                // DirSync results are consumed while being read: do not let a huge response fill the heap
+                syncCtx.addToEnvironment(REPLY_QUEUE_SIZE, String.valueOf(config.getSyncQueueSize()));
+            }
+
+            syncCtx.setRequestControls(control);
+        } catch (NamingException e) {
+            invalidateSyncContext(baseContextDn);
+            throw new ConnectorException("Could not set request controls on sync context", e);
+        }
+
+        syncCtxsLastUsed.put(baseContextDn, System.currentTimeMillis());
+        return syncCtx;
+    }
+
+    /**
+     * Discard the sync context of the given base context, e.g. after a communication failure: a new one will be
+     * created on next <tt>getSyncContext()</tt> call.
+     *
+     * @param baseContextDn synchronized base context.
+     */
+    public synchronized void invalidateSyncContext(final String baseContextDn) {
+        quietClose(syncCtxs.remove(baseContextDn));
+        syncCtxsLastUsed.remove(baseContextDn);
+    }
+
+    /**
+     * Borrow a context from the pool and bind it to the current thread: until returned, any call to
+     * <tt>getInitialContext()</tt> performed by the same thread will get this context.
+     * Nested calls from the same thread get the same context.
+     *
+     * @return borrowed context.
+     */
+    public LdapContext borrowContext() {
+        LeasedContext leased = leasedCtx.get();
+
+        if (leased == null) {
+            try {
+                leased = new LeasedContext(getContextPool().borrow());
+            } catch (NamingException e) {
+                throw new ConnectorException(e);
+            }
+
+            leasedCtx.set(leased);
+        }
+
+        leased.holds++;
+        return leased.ctx;
+    }
+
+    /**
+     * Number of contexts that other threads can borrow from the pool without waiting: a context already borrowed by
+     * the current thread is not counted, since nested calls get that one again.
+     *
+     * @return number of contexts available.
+     */
+    public int getAvailableContexts() {
+        return getContextPool().getAvailableCount();
+    }
+
+    /**
+     * Give back a context obtained via <tt>borrowContext()</tt>.
+     *
+     * @param ctx borrowed context.
+     */
+    public void returnContext(final LdapContext ctx) {
+        returnContext(ctx, false);
+    }
+
+    /**
+     * Give back a context obtained via <tt>borrowContext()</tt>, reporting whether it has been found broken: if so,
+     * it is discarded instead of being pooled again, once given back by every nested borrower.
+     *
+     * @param ctx borrowed context.
+     * @param broken whether a communication failure occurred while using the context.
+     */
+    public void returnContext(final LdapContext ctx, final boolean broken) {
+        final LeasedContext leased = leasedCtx.get();
+
+        if (leased == null || leased.ctx != ctx) {
+            LOG.warn("Context to be returned has not been borrowed by the current thread");
+            return;
+        }
+
+        leased.holds--;
+        leased.broken |= broken;
+
+        if (leased.holds == 0) {
+            leasedCtx.remove();
+
+            final ADContextPool pool;
+            synchronized (this) {
+                pool = ctxPool;
+            }
+
+            if (pool == null) {
+                // connection closed in the meanwhile
+                quietClose(ctx);
+            } else if (leased.broken) {
+                LOG.ok("Discarding broken pooled context");
+                pool.invalidate(ctx);
+            } else {
+                pool.release(ctx);
+            }
+        }
+    }
+
+    /**
+     * Whether the given failure, or any of its causes, reports the connection to the server as lost.
+     *
+     * @param failure failure.
+     * @return whether a communication failure occurred.
+     */
+    public static boolean isCommunicationFailure(final Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            // NamingException exposes its root cause as cause
+            if (cause instanceof CommunicationException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private synchronized ADContextPool getContextPool() {
+        if (ctxPool == null) {
+            ctxPool = new ADContextPool(new ADContextPool.ContextFactory() {
+
+                @Override
+                public LdapContext createContext() {
+                    return connect(config.getPrincipal(), config.getCredentials());
+                }
+
+                @Override
+                public boolean validateContext(final LdapContext ctx) {
+                    try {
+                        checkAlive(ctx);
+                        return true;
+                    } catch (NamingException e) {
+                        LOG.ok(e, "Pooled context validation failed");
+                        return false;
+                    }
+                }
+            },
+                    config.getPoolMinSize(),
+                    config.getPoolMaxSize(),
+                    config.getPoolMaxWait(),
+                    config.getPoolIdleTimeout());
+            ctxPool.prefill();
+        }
+
+        return ctxPool;
     }
 
     @Override
     public void close() {
+        final GroupMembershipBuffer buffer;
+        synchronized (this) {
+            buffer = membershipBuffer;
+            membershipBuffer = null;
+        }
+        if (buffer != null) {
+            buffer.close();
+        }
+
         try {
             super.close();
             quietClose(initCtx);
-            quietClose(syncCtx);
-        } finally {
-            initCtx = null;
-            syncCtx = null;
-        }
-    }
 
-    private LdapContext cloneContext(final Control[] control) {
-        LdapContext ctx = null;
+            synchronized (this) {
+                if (changeNotifier != null) {
+                    changeNotifier.close();
+                    changeNotifier = null;
+                }
 
-        try {
-            @SuppressWarnings({"UseOfObsoleteCollectionType", "rawtypes", "unchecked"})
-            final Hashtable env = new Hashtable(getInitialContext().getEnvironment());
+                for (LdapContext syncCtx : syncCtxs.values()) {
+                    quietClose(syncCtx);
+                }
+                syncCtxs.clear();
+                syncCtxsLastUsed.clear();
 
-            ctx = new InitialLdapContext(env, null);
-            ctx.setRequestControls(control);
+                if (ctxPool != null) {
+                    ctxPool.close();
+                    ctxPool = null;
+                }
 
-        } catch (NamingException e) {
-            LOG.error(e, "Context initialization failed");
+                if (bindPool != null) {
+                    bindPool.close();
+                    bindPool = null;
+                }
+            }
+        } finally {
+            initCtx = null;
         }
-
-        return ctx;
     }
 
     private static void quietClose(final LdapContext ctx) {
@@ -145,6 +553,77 @@ public class ADConnection extends LdapConnection {
 
     @Override
     public LdapContext getInitialContext() {
+        final LeasedContext leased = leasedCtx.get();
+        if (leased != null) {
+            return leased.ctx;
+        }
+
+        return getSharedContext();
+    }
+
+    /**
+     * Open a new connection, neither pooled nor shared, e.g. to be kept busy by a long-running search.
+     * The caller is in charge of closing it.
+     *
+     * @return new context.
+     */
+    public LdapContext createDedicatedContext() {
+        return connect(config.getPrincipal(), config.getCredentials());
+    }
+
+    /**
+     * Get the listener of change notifications below the base contexts to synchronize, started at first call.
+     *
+     * @return change notifier.
+     */
+    public synchronized ChangeNotifier getChangeNotifier() {
+        if (changeNotifier == null) {
+            changeNotifier = new ChangeNotifier(this);
+            changeNotifier.start();
+        }
+
+        return changeNotifier;
+    }
+
+    /**
+     * Get the write-behind buffer of group member additions and removals, if enabled.
+     *
+     * @return group membership buffer, or <tt>null</tt> if memberships are to be written right away.
+     */
+    public synchronized GroupMembershipBuffer getMembershipBuffer() {
+        if (membershipBuffer == null && config.getMembershipBufferSize() > 0) {
+            membershipBuffer = new GroupMembershipBuffer(this);
+        }
+
+        return membershipBuffer;
+    }
+
+    /**
+     * Get the group membership buffer to be used by the operation running in the current thread: only operations run
+     * within a batch, whose outcome is checked once buffered changes are written, go through the buffer.
+     *
+     * @return group membership buffer, or <tt>null</tt> if memberships are to be written right away.
+     */
+    public GroupMembershipBuffer getBatchMembershipBuffer() {
+        final GroupMembershipBuffer buffer = getMembershipBuffer();
+        return buffer == null || !buffer.isTracking() ? null : buffer;
+    }
+
+    /**
+     * Write group member additions and removals still buffered, if any: to be called before reading memberships.
+     */
+    public void flushMemberships() {
+        final GroupMembershipBuffer buffer;
+        synchronized (this) {
+            buffer = membershipBuffer;
+        }
+
+        if (buffer != null) {
+            buffer.flush();
+        }
+    }
+
+    private synchronized LdapContext getSharedContext() {
         if (this.initCtx != null) {
             return this.initCtx;
         }
@@ -189,7 +668,7 @@ public class ADConnection extends LdapConnection {
         }
 
         // needs one env property more to retrieve binary objectGUID
-        env.put(LDAP_BINARY_ATTRIBUTE, "objectGUID");
+        env.put(LDAP_BINARY_ATTRIBUTE, "objectGUID invocationId");
 
         String authentication = isNotBlank(principal) ? "simple" : "none";
         env.put(Context.SECURITY_AUTHENTICATION, authentication);
@@ -228,40 +707,51 @@ public class ADConnection extends LdapConnection {
         try {
             context = new InitialLdapContext(env, null);
 
-            if (config.isRespectResourcePasswordPolicyChangeAfterReset()) {
-                if (hasPasswordExpiredControl(context.getResponseControls())) {
-                    authnResult = new AuthenticationResult(
-                            AuthenticationResultType.PASSWORD_EXPIRED);
-                }
-            }
+            authnResult = getAuthenticationResult(context.getResponseControls());
 
         } catch (AuthenticationException e) {
-            // TODO: check AD response
-            String message = e.getMessage().toLowerCase();
-            if (message.contains("password expired")) { // Sun DS.
-                authnResult = new AuthenticationResult(
-                        AuthenticationResultType.PASSWORD_EXPIRED, e);
-            } else if (message.contains("password has expired")) { // RACF.
-                authnResult = new AuthenticationResult(
-                        AuthenticationResultType.PASSWORD_EXPIRED, e);
-            } else {
-                authnResult = new AuthenticationResult(
-                        AuthenticationResultType.FAILED, e);
-            }
-
+            authnResult = getAuthenticationResult(e);
         } catch (NamingException e) {
             authnResult = new AuthenticationResult(
                     AuthenticationResultType.FAILED, e);
         }
 
-        if (authnResult == null) {
-            assert context != null;
+        return new Pair<AuthenticationResult, LdapContext>(authnResult, context);
+    }
 
-            authnResult = new AuthenticationResult(
-                    AuthenticationResultType.SUCCESS);
+    /**
+     * Result of a successful bind, given the bind response controls.
+     */
+    private AuthenticationResult getAuthenticationResult(final Control[] controls) {
+        if (config.isRespectResourcePasswordPolicyChangeAfterReset()) {
+            if (hasPasswordExpiredControl(controls)) {
+                return new AuthenticationResult(
+                        AuthenticationResultType.PASSWORD_EXPIRED);
+            }
         }
 
-        return new Pair<AuthenticationResult, LdapContext>(authnResult, context);
+        return new AuthenticationResult(
+                AuthenticationResultType.SUCCESS);
+    }
+
+    /**
+     * Result of a failed bind.
+     */
+    private static AuthenticationResult getAuthenticationResult(final AuthenticationException e) {
+        String message = e.getMessage().toLowerCase();
+        if (message.contains("data 532") || message.contains("data 773")) { // AD: expired or must be reset.
+            return new AuthenticationResult(
+                    AuthenticationResultType.PASSWORD_EXPIRED, e);
+        } else if (message.contains("password expired")) { // Sun DS.
+            return new AuthenticationResult(
+                    AuthenticationResultType.PASSWORD_EXPIRED, e);
+        } else if (message.contains("password has expired")) { // RACF.
+            return new AuthenticationResult(
+                    AuthenticationResultType.PASSWORD_EXPIRED, e);
+        } else {
+            return new AuthenticationResult(
+                    AuthenticationResultType.FAILED, e);
+        }
     }
 
     private static boolean hasPasswordExpiredControl(final Control[] controls) {
@@ -297,12 +787,29 @@ public class ADConnection extends LdapConnection {
     @Override
     public void checkAlive() {
         try {
-            final Attributes attrs = getInitialContext().
-                    getAttributes("", new String[]{"subschemaSubentry"});
-
-            attrs.get("subschemaSubentry");
+            checkAlive(getInitialContext());
         } catch (NamingException e) {
             throw new ConnectorException(e);
         }
     }
+
+    private static void checkAlive(final LdapContext ctx)
+            throws NamingException {
+
+        final Attributes attrs = ctx.getAttributes("", new String[]{"subschemaSubentry"});
+        attrs.get("subschemaSubentry");
+    }
+
+    private static class LeasedContext {
+
+        private final LdapContext ctx;
+
+        private int holds = 0;
+
+        private boolean broken = false;
+
+        public LeasedContext(final LdapContext ctx) {
+            this.ctx = ctx;
+        }
+    }
 }
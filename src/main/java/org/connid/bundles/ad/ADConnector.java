@@ -25,8 +25,10 @@ package org.connid.bundles.ad;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import org.connid.bundles.ad.authentication.ADAuthenticate;
+import org.connid.bundles.ad.crud.ADBatch;
 import org.connid.bundles.ad.crud.ADCreate;
 import org.connid.bundles.ad.crud.ADDelete;
 import org.connid.bundles.ad.crud.ADUpdate;
@@ -63,6 +65,16 @@ public class ADConnector extends LdapConnector {
 
     public static final String UACCONTROL_ATTR = "userAccountControl";
 
+    /**
+     * Group sync delta attribute reporting the member values added, when membership changes are incremental.
+     */
+    public static final String MEMBERS_ADDED_ATTR = "membersAdded";
+
+    /**
+     * Group sync delta attribute reporting the member values removed, when membership changes are incremental.
+     */
+    public static final String MEMBERS_REMOVED_ATTR = "membersRemoved";
+
     //some useful constants from lmaccess.h
     public static final int UF_ACCOUNTDISABLE = 0x0002;
 
@@ -120,12 +132,34 @@ public class ADConnector extends LdapConnector {
             final LdapFilter query,
             final ResultsHandler handler,
             final OperationOptions options) {
+        // memberships read must reflect buffered changes
+        conn.flushMemberships();
+
         new ADSearch(conn, oclass, query, options).executeADQuery(handler);
     }
 
     @Override
     public SyncToken getLatestSyncToken(final ObjectClass oclass) {
-        return syncStrategy.getLatestSyncToken();
+        final SyncToken token = syncStrategy.getLatestSyncToken();
+
+        // no sync run by this instance yet: reading highest committed USN is cheap, walking DirSync is not
+        return token == null && config.isUsnChangedSync() ? syncStrategy.fetchLatestSyncToken() : token;
+    }
+
+    /**
+     * Read the current sync token from the directory, see <tt>ADSyncStrategy.fetchLatestSyncToken()</tt>. The token
+     * is the same for every object class, hence none is to be given.
+     * <br/>
+     * Only with uSNChanged sync is this a single lookup. With DirSync, there is no way to ask for the current cookie:
+     * unless a sync has already run on this instance, this walks the whole DirSync change stream of every base
+     * context - i.e. reads one entry per object in the domain - holding the sync lock, so that synchronization of any
+     * object class waits meanwhile. Meant to be invoked explicitly, e.g. once when provisioning a new resource, never
+     * as part of regular synchronization.
+     *
+     * @return latest sync token.
+     */
+    public SyncToken fetchLatestSyncToken() {
+        return syncStrategy.fetchLatestSyncToken();
     }
 
     @Override
@@ -195,6 +229,16 @@ public class ADConnector extends LdapConnector {
         return new ADUpdate(conn, oclass, uid).update(attributes);
     }
 
+    /**
+     * Run the given create, update and delete operations concurrently, up to <tt>batchThreads</tt> at a time.
+     *
+     * @param operations operations, at most one per object: they may run in any order.
+     * @return one result per operation, in the same order.
+     */
+    public List<ADBatch.Result> batch(final List<ADBatch.Operation> operations) {
+        return new ADBatch(conn, this).execute(operations);
+    }
+
     @Override
     public void delete(
             final ObjectClass oclass,
@@ -0,0 +1,286 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.crud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.connid.bundles.ad.ADConfiguration;
+import org.connid.bundles.ad.ADConnection;
+import org.connid.bundles.ad.ADConnector;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Runs a list of create, update and delete operations concurrently, each on its own pooled connection, up to
+ * <tt>batchThreads</tt> at a time; group memberships requested meanwhile are aggregated by the group membership
+ * buffer, if enabled, and written before returning.
+ * <br/>
+ * Operations are independent of each other: the outcome of each is reported in its own result, in the given order.
+ * Since they may run in any order, several operations about the same object within a batch are not supported.
+ */
+public class ADBatch {
+
+    private static final Log LOG = Log.getLog(ADBatch.class);
+
+    public enum Type {
+
+        CREATE,
+        UPDATE,
+        DELETE
+
+    }
+
+    /**
+     * An operation to be run within a batch.
+     */
+    public static class Operation {
+
+        private final Type type;
+
+        private final ObjectClass oclass;
+
+        private final Uid uid;
+
+        private final Set<Attribute> attrs;
+
+        private final OperationOptions options;
+
+        private Operation(
+                final Type type,
+                final ObjectClass oclass,
+                final Uid uid,
+                final Set<Attribute> attrs,
+                final OperationOptions options) {
+
+            this.type = type;
+            this.oclass = oclass;
+            this.uid = uid;
+            this.attrs = attrs;
+            this.options = options;
+        }
+
+        public static Operation create(
+                final ObjectClass oclass, final Set<Attribute> attrs, final OperationOptions options) {
+
+            return new Operation(Type.CREATE, oclass, null, attrs, options);
+        }
+
+        public static Operation update(
+                final ObjectClass oclass, final Uid uid, final Set<Attribute> attrs, final OperationOptions options) {
+
+            return new Operation(Type.UPDATE, oclass, uid, attrs, options);
+        }
+
+        public static Operation delete(final ObjectClass oclass, final Uid uid, final OperationOptions options) {
+            return new Operation(Type.DELETE, oclass, uid, null, options);
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public ObjectClass getObjectClass() {
+            return oclass;
+        }
+
+        public Uid getUid() {
+            return uid;
+        }
+
+        public Set<Attribute> getAttributes() {
+            return attrs;
+        }
+
+        public OperationOptions getOptions() {
+            return options;
+        }
+    }
+
+    /**
+     * Outcome of an operation run within a batch.
+     */
+    public static class Result {
+
+        private final Operation operation;
+
+        private Uid uid;
+
+        private RuntimeException failure;
+
+        private List<GroupMembershipBuffer.Pending> memberships = Collections.emptyList();
+
+        private Result(final Operation operation) {
+            this.operation = operation;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return uid of the entry created or updated, <tt>null</tt> for deletions and failures.
+         */
+        public Uid getUid() {
+            return uid;
+        }
+
+        /**
+         * @return failure, <tt>null</tt> if the operation succeeded - group memberships included.
+         */
+        public RuntimeException getFailure() {
+            return failure;
+        }
+
+        public boolean isSuccess() {
+            return failure == null;
+        }
+    }
+
+    private final ADConnection conn;
+
+    private final ADConnector connector;
+
+    public ADBatch(final ADConnection conn, final ADConnector connector) {
+        this.conn = conn;
+        this.connector = connector;
+    }
+
+    /**
+     * Run the given operations.
+     *
+     * @param operations operations.
+     * @return one result per operation, in the same order.
+     */
+    public List<Result> execute(final List<Operation> operations) {
+        final List<Result> results = new ArrayList<Result>(operations.size());
+        for (Operation operation : operations) {
+            results.add(new Result(operation));
+        }
+
+        final int threads = Math.min(((ADConfiguration) conn.getConfiguration()).getBatchThreads(), results.size());
+
+        if (threads <= 1) {
+            for (Result result : results) {
+                run(result);
+            }
+        } else {
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                final List<Future<?>> futures = new ArrayList<Future<?>>(results.size());
+                for (final Result result : results) {
+                    futures.add(executor.submit(new Callable<Void>() {
+
+                        @Override
+                        public Void call() {
+                            run(result);
+                            return null;
+                        }
+                    }));
+                }
+
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorException("Interrupted while running batch", e);
+            } catch (ExecutionException e) {
+                // run() catches anything thrown by operations
+                throw new ConnectorException("While running batch", e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        // buffered group memberships are written now, so that failures can be reported
+        conn.flushMemberships();
+
+        int failed = 0;
+        for (Result result : results) {
+            if (result.failure == null) {
+                for (GroupMembershipBuffer.Pending pending : result.memberships) {
+                    try {
+                        pending.check();
+                    } catch (ConnectorException e) {
+                        result.failure = e;
+                    }
+                }
+            }
+
+            if (result.failure != null) {
+                failed++;
+            }
+        }
+
+        if (LOG.isOk()) {
+            LOG.ok("Batch of {0} operations run by {1} threads: {2} failed", results.size(), threads, failed);
+        }
+
+        return results;
+    }
+
+    private void run(final Result result) {
+        final Operation operation = result.operation;
+
+        final GroupMembershipBuffer buffer = conn.getMembershipBuffer();
+        if (buffer != null) {
+            buffer.track();
+        }
+
+        try {
+            switch (operation.type) {
+                case CREATE:
+                    result.uid = connector.create(operation.oclass, operation.attrs, operation.options);
+                    break;
+
+                case UPDATE:
+                    result.uid = connector.update(operation.oclass, operation.uid, operation.attrs, operation.options);
+                    break;
+
+                case DELETE:
+                    connector.delete(operation.oclass, operation.uid, operation.options);
+                    break;
+
+                default:
+            }
+        } catch (RuntimeException e) {
+            LOG.error(e, "Batch {0} of {1} {2} failed", operation.type, operation.oclass, operation.uid);
+            result.failure = e;
+        } finally {
+            if (buffer != null) {
+                result.memberships = buffer.untrack();
+            }
+        }
+    }
+}
@@ -33,6 +33,7 @@ import java.util.Set;
 import javax.naming.NamingException;
 import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.LdapContext;
 import org.connid.bundles.ad.ADConfiguration;
 import org.connid.bundles.ad.ADConnection;
 import org.connid.bundles.ad.util.ADGuardedPasswordAttribute;
@@ -75,10 +76,18 @@ public class ADCreate extends LdapModifyOperation {
     }
 
     public Uid create() {
+        boolean broken = false;
+        final LdapContext ctx = conn.borrowContext();
         try {
             return executeImpl();
         } catch (NamingException e) {
+            broken = ADConnection.isCommunicationFailure(e);
             throw new ConnectorException(e);
+        } catch (RuntimeException e) {
+            broken = ADConnection.isCommunicationFailure(e);
+            throw e;
+        } finally {
+            conn.returnContext(ctx, broken);
         }
     }
 
@@ -194,7 +203,12 @@ public class ADCreate extends LdapModifyOperation {
         entryDN[0] = conn.getSchemaMapping().create(oclass, name, adAttrs);
 
         if (!isEmpty(ldapGroups)) {
-            groupHelper.addLdapGroupMemberships(entryDN[0], ldapGroups);
+            final GroupMembershipBuffer buffer = conn.getBatchMembershipBuffer();
+            if (buffer == null) {
+                groupHelper.addLdapGroupMemberships(entryDN[0], ldapGroups);
+            } else {
+                buffer.add(entryDN[0], ldapGroups);
+            }
         }
 
         return conn.getSchemaMapping().createUid(oclass, entryDN[0]);
@@ -25,6 +25,7 @@ package org.connid.bundles.ad.crud;
 import java.util.HashSet;
 import java.util.Set;
 import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
 import org.connid.bundles.ad.ADConnection;
 import org.connid.bundles.ldap.commons.LdapModifyOperation;
 import org.connid.bundles.ldap.search.LdapSearches;
@@ -53,16 +54,27 @@ public class ADDelete extends LdapModifyOperation {
     }
 
     public void delete() {
-        final String entryDN = LdapSearches.getEntryDN(conn, oclass, uid);
+        boolean broken = false;
+        final LdapContext ctx = conn.borrowContext();
+        try {
+            final String entryDN = LdapSearches.getEntryDN(conn, oclass, uid);
 
-        final Set<String> ldapGroups = new HashSet<String>(groupHelper.getLdapGroups(entryDN));
+            // buffered changes would refer to a missing entry
+            conn.flushMemberships();
 
-        groupHelper.removeLdapGroupMemberships(entryDN, ldapGroups);
+            final Set<String> ldapGroups = new HashSet<String>(groupHelper.getLdapGroups(entryDN));
 
-        try {
-            conn.getInitialContext().destroySubcontext(entryDN);
+            groupHelper.removeLdapGroupMemberships(entryDN, ldapGroups);
+
+            ctx.destroySubcontext(entryDN);
         } catch (NamingException e) {
+            broken = ADConnection.isCommunicationFailure(e);
             throw new ConnectorException(e);
+        } catch (RuntimeException e) {
+            broken = ADConnection.isCommunicationFailure(e);
+            throw e;
+        } finally {
+            conn.returnContext(ctx, broken);
         }
     }
 }
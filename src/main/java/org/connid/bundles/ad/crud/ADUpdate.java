@@ -40,6 +40,7 @@ import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
 import javax.naming.ldap.Rdn;
 import org.connid.bundles.ad.ADConfiguration;
@@ -138,6 +139,19 @@ public class ADUpdate extends LdapModifyOperation {
     }
 
     public Uid update(final Set<Attribute> attrs) {
+        boolean broken = false;
+        final LdapContext ctx = conn.borrowContext();
+        try {
+            return updateImpl(attrs);
+        } catch (RuntimeException e) {
+            broken = ADConnection.isCommunicationFailure(e);
+            throw e;
+        } finally {
+            conn.returnContext(ctx, broken);
+        }
+    }
+
+    private Uid updateImpl(final Set<Attribute> attrs) {
         final ConnectorObject obj = getEntryToBeUpdated();
         String entryDN = obj.getName().getNameValue();
 
@@ -148,6 +162,13 @@ public class ADUpdate extends LdapModifyOperation {
         final Name newName = getNewName(entryDN, attrsToBeUpdated);
         // ---------------------------------
 
+        final List<String> ldapGroups = getStringListValue(attrsToBeUpdated, LdapConstants.LDAP_GROUPS_NAME);
+
+        // buffered changes must be written before reading memberships or renaming
+        if (newName != null || ldapGroups != null) {
+            conn.flushMemberships();
+        }
+
         // ---------------------------------
         // Perform modify/rename
         // ---------------------------------
@@ -165,8 +186,6 @@ public class ADUpdate extends LdapModifyOperation {
         // ---------------------------------
         // Perform group memberships
         // ---------------------------------
-        final List<String> ldapGroups = getStringListValue(attrsToBeUpdated, LdapConstants.LDAP_GROUPS_NAME);
-
         if (ldapGroups != null) {
             final Set<String> oldMemberships = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
             oldMemberships.addAll(groupHelper.getLdapGroups(entryDN));
@@ -177,6 +196,8 @@ public class ADUpdate extends LdapModifyOperation {
             // Update the LDAP groups.
             final Modification<GroupMembership> ldapGroupMod = new Modification<GroupMembership>();
 
+            final GroupMembershipBuffer buffer = conn.getBatchMembershipBuffer();
+
             if (!newMemberships.equals(oldMemberships)) {
                 final Set<String> toBeRemoved = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
                 toBeRemoved.addAll(oldMemberships);
@@ -193,9 +214,16 @@ public class ADUpdate extends LdapModifyOperation {
                 for (String membership : toBeAdded) {
                     ldapGroupMod.add(new GroupMembership(entryDN, membership));
                 }
+
+                if (buffer != null) {
+                    buffer.remove(entryDN, toBeRemoved);
+                    buffer.add(entryDN, toBeAdded);
+                }
             }
 
-            groupHelper.modifyLdapGroupMemberships(ldapGroupMod);
+            if (buffer == null) {
+                groupHelper.modifyLdapGroupMemberships(ldapGroupMod);
+            }
         }
         // ---------------------------------
 
@@ -203,35 +231,63 @@ public class ADUpdate extends LdapModifyOperation {
     }
 
     public Uid addAttributeValues(Set<Attribute> attrs) {
-        final ConnectorObject obj = getEntryToBeUpdated();
-        final String entryDN = obj.getName().getNameValue();
+        boolean broken = false;
+        final LdapContext ctx = conn.borrowContext();
+        try {
+            final ConnectorObject obj = getEntryToBeUpdated();
+            final String entryDN = obj.getName().getNameValue();
 
-        final Pair<Attributes, ADGuardedPasswordAttribute> attrsToModify = getAttributesToModify(obj, attrs);
+            final Pair<Attributes, ADGuardedPasswordAttribute> attrsToModify = getAttributesToModify(obj, attrs);
 
-        modifyAttributes(entryDN, attrsToModify, DirContext.ADD_ATTRIBUTE);
+            modifyAttributes(entryDN, attrsToModify, DirContext.ADD_ATTRIBUTE);
 
-        List<String> ldapGroups = getStringListValue(attrs, LdapConstants.LDAP_GROUPS_NAME);
-        if (!isEmpty(ldapGroups)) {
-            groupHelper.addLdapGroupMemberships(entryDN, ldapGroups);
-        }
+            List<String> ldapGroups = getStringListValue(attrs, LdapConstants.LDAP_GROUPS_NAME);
+            if (!isEmpty(ldapGroups)) {
+                final GroupMembershipBuffer buffer = conn.getBatchMembershipBuffer();
+                if (buffer == null) {
+                    groupHelper.addLdapGroupMemberships(entryDN, ldapGroups);
+                } else {
+                    buffer.add(entryDN, ldapGroups);
+                }
+            }
 
-        return uid;
+            return uid;
+        } catch (RuntimeException e) {
+            broken = ADConnection.isCommunicationFailure(e);
+            throw e;
+        } finally {
+            conn.returnContext(ctx, broken);
+        }
     }
 
     public Uid removeAttributeValues(Set<Attribute> attrs) {
-        final ConnectorObject obj = getEntryToBeUpdated();
-        final String entryDN = obj.getName().getNameValue();
+        boolean broken = false;
+        final LdapContext ctx = conn.borrowContext();
+        try {
+            final ConnectorObject obj = getEntryToBeUpdated();
+            final String entryDN = obj.getName().getNameValue();
 
-        final Pair<Attributes, ADGuardedPasswordAttribute> attrsToModify = getAttributesToModify(obj, attrs);
+            final Pair<Attributes, ADGuardedPasswordAttribute> attrsToModify = getAttributesToModify(obj, attrs);
 
-        modifyAttributes(entryDN, attrsToModify, DirContext.REMOVE_ATTRIBUTE);
+            modifyAttributes(entryDN, attrsToModify, DirContext.REMOVE_ATTRIBUTE);
 
-        List<String> ldapGroups = getStringListValue(attrs, LdapConstants.LDAP_GROUPS_NAME);
-        if (!isEmpty(ldapGroups)) {
-            groupHelper.removeLdapGroupMemberships(entryDN, ldapGroups);
-        }
+            List<String> ldapGroups = getStringListValue(attrs, LdapConstants.LDAP_GROUPS_NAME);
+            if (!isEmpty(ldapGroups)) {
+                final GroupMembershipBuffer buffer = conn.getBatchMembershipBuffer();
+                if (buffer == null) {
+                    groupHelper.removeLdapGroupMemberships(entryDN, ldapGroups);
+                } else {
+                    buffer.remove(entryDN, ldapGroups);
+                }
+            }
 
-        return uid;
+            return uid;
+        } catch (RuntimeException e) {
+            broken = ADConnection.isCommunicationFailure(e);
+            throw e;
+        } finally {
+            conn.returnContext(ctx, broken);
+        }
     }
 
     private Pair<Attributes, ADGuardedPasswordAttribute> getAttributesToModify(
@@ -0,0 +1,443 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.crud;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NamingException;
+import javax.naming.directory.AttributeInUseException;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.NoSuchAttributeException;
+import javax.naming.ldap.LdapContext;
+import org.connid.bundles.ad.ADConfiguration;
+import org.connid.bundles.ad.ADConnection;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Write-behind buffer of group member additions and removals: pending changes are aggregated per group and written
+ * as a single multi-value modify per group, once <tt>membershipBufferSize</tt> changes are pending for a group or
+ * <tt>membershipBufferMaxWait</tt> milliseconds after the first of them, whatever comes first.
+ * <br/>
+ * Should such a modify fail, changes are written again one at a time, so that each failure can be reported to the
+ * operation which requested the change, via the <tt>Pending</tt> returned when requested.
+ * <br/>
+ * Only operations run within a batch - i.e. between <tt>track()</tt> and <tt>untrack()</tt> - are meant to go through
+ * the buffer, since their outcome is checked before the batch returns; flushes of the same group never overlap, so
+ * that changes are written in the order they were requested.
+ */
+public class GroupMembershipBuffer {
+
+    private static final Log LOG = Log.getLog(GroupMembershipBuffer.class);
+
+    /**
+     * Changes requested by one operation for one member.
+     */
+    public static class Pending {
+
+        private final String memberDN;
+
+        private int remaining;
+
+        private final Map<String, NamingException> failures = new TreeMap<String, NamingException>(
+                String.CASE_INSENSITIVE_ORDER);
+
+        private Pending(final String memberDN, final int groups) {
+            this.memberDN = memberDN;
+            this.remaining = groups;
+        }
+
+        private synchronized void done(final String groupDN, final NamingException failure) {
+            if (failure != null) {
+                failures.put(groupDN, failure);
+            }
+
+            remaining--;
+            notifyAll();
+        }
+
+        /**
+         * Wait for the changes to be written.
+         *
+         * @return failures by group DN, empty if all changes have been written.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        public synchronized Map<String, NamingException> await() throws InterruptedException {
+            while (remaining > 0) {
+                wait();
+            }
+
+            return failures;
+        }
+
+        /**
+         * Wait for the changes to be written, failing if any could not be.
+         *
+         * @throws ConnectorException if any change could not be written.
+         */
+        public void check() {
+            final Map<String, NamingException> found;
+            try {
+                found = await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorException("Interrupted while writing group memberships of " + memberDN, e);
+            }
+
+            if (!found.isEmpty()) {
+                final Map.Entry<String, NamingException> first = found.entrySet().iterator().next();
+                throw new ConnectorException("Could not update memberships of " + memberDN + " in " + found.keySet(),
+                        first.getValue());
+            }
+        }
+    }
+
+    /**
+     * Changes pending for a group: member DN to <tt>true</tt> when to be added, <tt>false</tt> when to be removed.
+     */
+    private static class GroupChanges {
+
+        private final Map<String, Boolean> members = new TreeMap<String, Boolean>(String.CASE_INSENSITIVE_ORDER);
+
+        private final Map<String, List<Pending>> requesters = new TreeMap<String, List<Pending>>(
+                String.CASE_INSENSITIVE_ORDER);
+
+        /**
+         * Report the outcome of the change of the given member to all the operations which requested it.
+         */
+        private void complete(final String groupDN, final String memberDN, final NamingException failure) {
+            final List<Pending> handles = requesters.remove(memberDN);
+            if (handles != null) {
+                for (Pending handle : handles) {
+                    handle.done(groupDN, failure);
+                }
+            }
+        }
+
+        /**
+         * Report the given outcome to all the operations still waiting.
+         */
+        private void completeAll(final String groupDN, final NamingException failure) {
+            for (String memberDN : new ArrayList<String>(requesters.keySet())) {
+                complete(groupDN, memberDN, failure);
+            }
+        }
+
+        private void put(final String memberDN, final boolean add, final Pending pending) {
+            // last change wins: a removal cancels a pending addition and vice versa
+            members.put(memberDN, add);
+
+            List<Pending> list = requesters.get(memberDN);
+            if (list == null) {
+                list = new ArrayList<Pending>();
+                requesters.put(memberDN, list);
+            }
+            list.add(pending);
+        }
+    }
+
+    private final ADConnection conn;
+
+    private final int size;
+
+    private final long maxWait;
+
+    private final String memberAttr;
+
+    private final Map<String, GroupChanges> pending = new TreeMap<String, GroupChanges>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * Groups being written right now.
+     */
+    private final Set<String> flushing = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Changes requested by the current thread since <tt>track()</tt>, if called.
+     */
+    private final ThreadLocal<List<Pending>> tracked = new ThreadLocal<List<Pending>>();
+
+    public GroupMembershipBuffer(final ADConnection conn) {
+        this.conn = conn;
+        this.size = ((ADConfiguration) conn.getConfiguration()).getMembershipBufferSize();
+        this.maxWait = ((ADConfiguration) conn.getConfiguration()).getMembershipBufferMaxWait();
+        this.memberAttr = conn.getConfiguration().getGroupMemberAttribute();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "AD group membership buffer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Request the given member to be added to the given groups.
+     *
+     * @param memberDN member DN.
+     * @param groupDNs group DNs.
+     * @return handle to wait for the changes to be written.
+     */
+    public Pending add(final String memberDN, final Collection<String> groupDNs) {
+        return enqueue(memberDN, groupDNs, true);
+    }
+
+    /**
+     * Request the given member to be removed from the given groups.
+     *
+     * @param memberDN member DN.
+     * @param groupDNs group DNs.
+     * @return handle to wait for the changes to be written.
+     */
+    public Pending remove(final String memberDN, final Collection<String> groupDNs) {
+        return enqueue(memberDN, groupDNs, false);
+    }
+
+    /**
+     * Start collecting the changes requested by the current thread.
+     */
+    public void track() {
+        tracked.set(new ArrayList<Pending>());
+    }
+
+    /**
+     * @return whether changes requested by the current thread are being collected.
+     */
+    public boolean isTracking() {
+        return tracked.get() != null;
+    }
+
+    /**
+     * Stop collecting the changes requested by the current thread.
+     *
+     * @return changes requested since <tt>track()</tt>.
+     */
+    public List<Pending> untrack() {
+        final List<Pending> handles = tracked.get();
+        tracked.remove();
+
+        return handles == null ? Collections.<Pending>emptyList() : handles;
+    }
+
+    private Pending enqueue(final String memberDN, final Collection<String> groupDNs, final boolean add) {
+        final Pending handle = new Pending(memberDN, groupDNs.size());
+
+        final List<Pending> handles = tracked.get();
+        if (handles != null) {
+            handles.add(handle);
+        }
+
+        final List<String> full = new ArrayList<String>();
+
+        synchronized (this) {
+            for (final String groupDN : groupDNs) {
+                GroupChanges changes = pending.get(groupDN);
+                if (changes == null) {
+                    changes = new GroupChanges();
+                    pending.put(groupDN, changes);
+
+                    scheduler.schedule(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            try {
+                                flush(groupDN);
+                            } catch (RuntimeException e) {
+                                // already reported to the requesters
+                                LOG.error(e, "Could not flush group {0}", groupDN);
+                            }
+                        }
+                    }, maxWait, TimeUnit.MILLISECONDS);
+                }
+
+                changes.put(memberDN, add, handle);
+
+                if (changes.members.size() >= size) {
+                    full.add(groupDN);
+                }
+            }
+        }
+
+        for (String groupDN : full) {
+            flush(groupDN);
+        }
+
+        return handle;
+    }
+
+    /**
+     * Write all pending changes: to be called before reading group memberships.
+     */
+    public void flush() {
+        final List<String> groupDNs;
+        synchronized (this) {
+            groupDNs = new ArrayList<String>(pending.keySet());
+        }
+
+        for (String groupDN : groupDNs) {
+            flush(groupDN);
+        }
+    }
+
+    /**
+     * Write all pending changes and stop.
+     */
+    public void close() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    private void flush(final String groupDN) {
+        final GroupChanges changes;
+        synchronized (this) {
+            // a flush of this group still running would otherwise be overtaken by this one
+            while (flushing.contains(groupDN)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ConnectorException("Interrupted while waiting to flush group " + groupDN, e);
+                }
+            }
+
+            changes = pending.remove(groupDN);
+            if (changes == null) {
+                return;
+            }
+
+            flushing.add(groupDN);
+        }
+
+        try {
+            write(groupDN, changes);
+        } catch (RuntimeException e) {
+            final NamingException failure = new NamingException(e.getMessage());
+            failure.setRootCause(e);
+            changes.completeAll(groupDN, failure);
+
+            throw e;
+        } finally {
+            synchronized (this) {
+                flushing.remove(groupDN);
+                notifyAll();
+            }
+        }
+    }
+
+    private void write(final String groupDN, final GroupChanges changes) {
+        if (changes.members.isEmpty()) {
+            return;
+        }
+
+        final BasicAttribute toAdd = new BasicAttribute(memberAttr);
+        final BasicAttribute toRemove = new BasicAttribute(memberAttr);
+        for (Map.Entry<String, Boolean> entry : changes.members.entrySet()) {
+            (entry.getValue() ? toAdd : toRemove).add(entry.getKey());
+        }
+
+        final List<ModificationItem> items = new ArrayList<ModificationItem>();
+        if (toAdd.size() > 0) {
+            items.add(new ModificationItem(DirContext.ADD_ATTRIBUTE, toAdd));
+        }
+        if (toRemove.size() > 0) {
+            items.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE, toRemove));
+        }
+
+        boolean broken = false;
+        final LdapContext ctx = conn.borrowContext();
+        try {
+            try {
+                ctx.modifyAttributes(groupDN, items.toArray(new ModificationItem[items.size()]));
+
+                if (LOG.isOk()) {
+                    LOG.ok("Group {0}: {1} members added, {2} removed", groupDN, toAdd.size(), toRemove.size());
+                }
+
+                changes.completeAll(groupDN, null);
+            } catch (NamingException e) {
+                if (ADConnection.isCommunicationFailure(e)) {
+                    // no point in retrying one at a time over a broken connection
+                    broken = true;
+                    LOG.error(e, "Group {0}: could not update members", groupDN);
+
+                    changes.completeAll(groupDN, e);
+                    return;
+                }
+
+                LOG.ok(e, "Group {0}: bulk update failed, updating one member at a time", groupDN);
+
+                for (Map.Entry<String, Boolean> entry : changes.members.entrySet()) {
+                    changes.complete(groupDN, entry.getKey(), modify(ctx, groupDN, entry.getKey(), entry.getValue()));
+                }
+            }
+        } catch (RuntimeException e) {
+            broken = ADConnection.isCommunicationFailure(e);
+            throw e;
+        } finally {
+            conn.returnContext(ctx, broken);
+        }
+    }
+
+    /**
+     * Add or remove a single member.
+     *
+     * @return failure, <tt>null</tt> if the member has been added or removed - or already was.
+     */
+    private NamingException modify(
+            final LdapContext ctx, final String groupDN, final String memberDN, final boolean add) {
+
+        try {
+            ctx.modifyAttributes(groupDN, new ModificationItem[]{new ModificationItem(
+                add ? DirContext.ADD_ATTRIBUTE : DirContext.REMOVE_ATTRIBUTE,
+                new BasicAttribute(memberAttr, memberDN))});
+            return null;
+        } catch (AttributeInUseException e) {
+            return add ? null : e;
+        } catch (NameAlreadyBoundException e) {
+            return add ? null : e;
+        } catch (NoSuchAttributeException e) {
+            return add ? e : null;
+        } catch (NamingException e) {
+            LOG.error(e, "Could not {0} {1} {2} group {3}", add ? "add" : "remove", memberDN,
+                    add ? "to" : "from", groupDN);
+            return e;
+        }
+    }
+}
@@ -26,12 +26,15 @@ import static java.util.Collections.singletonList;
 import static org.identityconnectors.common.StringUtil.isBlank;
 
 import com.sun.jndi.ldap.ctl.VirtualListViewControl;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.naming.NamingException;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.PagedResultsControl;
 import org.connid.bundles.ad.ADConfiguration;
 import org.connid.bundles.ad.ADConnection;
@@ -44,6 +47,7 @@ import org.connid.bundles.ldap.search.LdapSearchStrategy;
 import org.connid.bundles.ldap.search.LdapSearches;
 import org.connid.bundles.ldap.search.SearchResultsHandler;
 import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.QualifiedUid;
@@ -96,20 +100,100 @@ public class ADSearch {
         final String[] attrsToGetOption = options.getAttributesToGet();
         final Set<String> attrsToGet = utils.getAttributesToGet(attrsToGetOption, oclass);
 
-        final LdapInternalSearch search = getInternalSearch(attrsToGet);
+        boolean broken = false;
+        final LdapContext ctx = ((ADConnection) conn).borrowContext();
+        try {
+            final LdapInternalSearch search = getInternalSearch(attrsToGet);
 
-        search.execute(new SearchResultsHandler() {
+            if (attrsToGet.contains(LdapConstants.LDAP_GROUPS_NAME) && !utils.isLdapGroupsFromMemberOf()) {
+                final BatchingHandler batching = new BatchingHandler(handler, attrsToGet);
+                search.execute(batching);
+                batching.flush();
+            } else {
+                search.execute(new SearchResultsHandler() {
+
+                    @Override
+                    public boolean handle(String baseDN, SearchResult result)
+                            throws NamingException {
+                        return handler.handle(utils.createConnectorObject(
+                                result.getNameInNamespace(),
+                                result,
+                                attrsToGet,
+                                oclass));
+                    }
+                });
+            }
+        } catch (NamingException e) {
+            broken = ADConnection.isCommunicationFailure(e);
+            throw new ConnectorException(e);
+        } catch (RuntimeException e) {
+            broken = ADConnection.isCommunicationFailure(e);
+            throw e;
+        } finally {
+            ((ADConnection) conn).returnContext(ctx, broken);
+        }
+    }
+
+    /**
+     * Buffers search results so that groups are looked up once per batch of entries rather than once per entry.
+     */
+    private class BatchingHandler implements SearchResultsHandler {
+
+        private final ResultsHandler handler;
+
+        private final Set<String> attrsToGet;
 
-            @Override
-            public boolean handle(String baseDN, SearchResult result)
-                    throws NamingException {
-                return handler.handle(utils.createConnectorObject(
+        private final List<SearchResult> batch = new ArrayList<SearchResult>(ADUtilities.GROUP_LOOKUP_BATCH_SIZE);
+
+        private boolean proceed = true;
+
+        public BatchingHandler(final ResultsHandler handler, final Set<String> attrsToGet) {
+            this.handler = handler;
+            this.attrsToGet = attrsToGet;
+        }
+
+        @Override
+        public boolean handle(final String baseDN, final SearchResult result)
+                throws NamingException {
+
+            batch.add(result);
+
+            if (batch.size() >= ADUtilities.GROUP_LOOKUP_BATCH_SIZE) {
+                flush();
+            }
+
+            return proceed;
+        }
+
+        public void flush()
+                throws NamingException {
+
+            if (!proceed || batch.isEmpty()) {
+                return;
+            }
+
+            final List<String> dns = new ArrayList<String>(batch.size());
+            for (SearchResult result : batch) {
+                dns.add(result.getNameInNamespace());
+            }
+
+            final Map<String, Set<String>> ldapGroups = utils.getLdapGroups(dns);
+
+            for (SearchResult result : batch) {
+                proceed = handler.handle(utils.createConnectorObject(
                         result.getNameInNamespace(),
-                        result,
+                        result.getAttributes(),
                         attrsToGet,
-                        oclass));
+                        oclass,
+                        ldapGroups.get(result.getNameInNamespace())));
+
+                if (!proceed) {
+                    break;
+                }
             }
-        });
+
+            batch.clear();
+        }
     }
 
     private LdapInternalSearch getInternalSearch(Set<String> attrsToGet) {
@@ -196,14 +280,23 @@ public class ADSearch {
                     conn.getConfiguration().isUsePagedResultControl();
             int pageSize = conn.getConfiguration().getBlockSize();
 
+            boolean adaptivePageSize = ((ADConfiguration) conn.getConfiguration()).isAdaptivePageSize();
+            int maxPageSize = adaptivePageSize ? ((ADConnection) conn).getMaxPageSize() : 0;
+
             if (useBlocks && !usePagedResultsControl
                     && conn.supportsControl(VirtualListViewControl.OID)) {
                 String vlvSortAttr =
                         conn.getConfiguration().getVlvSortAttribute();
-                strategy = new ADVlvIndexSearchStrategy(vlvSortAttr, pageSize);
+                strategy = new ADVlvIndexSearchStrategy(vlvSortAttr, pageSize, maxPageSize, adaptivePageSize);
             } else if (useBlocks
                     && conn.supportsControl(PagedResultsControl.OID)) {
-                strategy = new ADSimplePagedSearchStrategy(pageSize);
+                strategy = new ADSimplePagedSearchStrategy(
+                        pageSize,
+                        maxPageSize,
+                        adaptivePageSize,
+                        (ADConnection) conn,
+                        ((ADConfiguration) conn.getConfiguration()).getSearchThreads(),
+                        ((ADConfiguration) conn.getConfiguration()).isPagePrefetch());
             } else {
                 strategy = new ADDefaultSearchStrategy(false);
             }
@@ -23,9 +23,18 @@
 package org.connid.bundles.ad.search;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.SearchControls;
@@ -34,6 +43,7 @@ import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.PagedResultsControl;
 import javax.naming.ldap.PagedResultsResponseControl;
+import org.connid.bundles.ad.ADConnection;
 import org.connid.bundles.ldap.search.SearchResultsHandler;
 import org.connid.bundles.ldap.search.SimplePagedSearchStrategy;
 import org.identityconnectors.common.logging.Log;
@@ -43,8 +53,23 @@ public class ADSimplePagedSearchStrategy extends SimplePagedSearchStrategy {
     private static final Log LOG =
             Log.getLog(ADSimplePagedSearchStrategy.class);
 
+    /**
+     * Milliseconds a worker waits for room in the hand-off queue before checking for cancellation again.
+     */
+    private static final long OFFER_TIMEOUT = 500L;
+
     private final int pageSize;
 
+    private final int maxPageSize;
+
+    private final boolean adaptivePageSize;
+
+    private final ADConnection conn;
+
+    private final int searchThreads;
+
+    private final boolean pagePrefetch;
+
     static String searchControlsToString(SearchControls controls) {
         StringBuilder builder = new StringBuilder();
         builder.append("SearchControls: {returningAttributes=");
@@ -67,8 +92,34 @@ public class ADSimplePagedSearchStrategy extends SimplePagedSearchStrategy {
     }
 
     public ADSimplePagedSearchStrategy(int pageSize) {
+        this(pageSize, 0, false, null, 1, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param pageSize (initial) page size.
+     * @param maxPageSize server's maximum page size.
+     * @param adaptivePageSize whether to adapt page size to observed latency and entry size.
+     * @param conn connection providing pooled contexts to concurrent searches.
+     * @param searchThreads maximum number of base DNs searched concurrently.
+     * @param pagePrefetch whether to request the next page while the current one is being handled.
+     */
+    public ADSimplePagedSearchStrategy(
+            int pageSize,
+            int maxPageSize,
+            boolean adaptivePageSize,
+            ADConnection conn,
+            int searchThreads,
+            boolean pagePrefetch) {
+
         super(pageSize);
         this.pageSize = pageSize;
+        this.maxPageSize = maxPageSize;
+        this.adaptivePageSize = adaptivePageSize;
+        this.conn = conn;
+        this.searchThreads = searchThreads;
+        this.pagePrefetch = pagePrefetch;
     }
 
     @Override
@@ -85,34 +136,355 @@ public class ADSimplePagedSearchStrategy extends SimplePagedSearchStrategy {
                     baseDNs, query, searchControlsToString(searchControls));
         }
 
+        final PageSizeController pager = new PageSizeController(pageSize, maxPageSize, adaptivePageSize);
+
+        // each worker holds a pooled context for the whole search: never wait for the pool
+        final int workers = conn == null || searchThreads < 2 || baseDNs.size() < 2
+                ? 1 : Math.min(Math.min(searchThreads, baseDNs.size()), conn.getAvailableContexts());
+
+        if (workers > 1) {
+            try {
+                doConcurrentSearch(baseDNs, query, searchControls, handler, pager, workers);
+            } finally {
+                pager.report();
+            }
+            return;
+        }
+
         LdapContext ctx = initCtx.newInstance(null);
         try {
             Iterator<String> baseDNIter = baseDNs.iterator();
             boolean proceed = true;
 
             while (baseDNIter.hasNext() && proceed) {
-                String baseDN = baseDNIter.next();
-                byte[] cookie = null;
-                do {
-                    ctx.setRequestControls(
-                            new Control[]{new PagedResultsControl(
-                                pageSize, cookie, Control.CRITICAL)});
-                    NamingEnumeration<SearchResult> results =
-                            ctx.search(baseDN, query, searchControls);
-                    try {
-                        // hasMore call for referral resolution ... it fails with AD
-                        // while (proceed && results.hasMore()) {
-                        while (proceed && results.hasMoreElements()) {
-                            proceed = handler.handle(baseDN, results.next());
+                proceed = searchBaseDN(ctx, baseDNIter.next(), query, searchControls, handler, pager);
+            }
+        } finally {
+            ctx.close();
+            pager.report();
+        }
+    }
+
+    /**
+     * Runs a paged search below the given base DN.
+     *
+     * @return <tt>false</tt> if the handler asked to stop.
+     */
+    private boolean searchBaseDN(
+            final LdapContext ctx,
+            final String baseDN,
+            final String query,
+            final SearchControls searchControls,
+            final SearchResultsHandler handler,
+            final PageSizeController pager)
+            throws IOException, NamingException {
+
+        if (pagePrefetch) {
+            return searchBaseDNPrefetching(ctx, baseDN, query, searchControls, handler, pager);
+        }
+
+        boolean proceed = true;
+        byte[] cookie = null;
+        do {
+            ctx.setRequestControls(
+                    new Control[]{new PagedResultsControl(
+                        pager.getPageSize(), cookie, Control.CRITICAL)});
+
+            // entries are read while being handled: handler time is not accounted to the page latency
+            final long start = System.nanoTime();
+            long handlerNanos = 0;
+            int entries = 0;
+            long bytes = 0;
+
+            NamingEnumeration<SearchResult> results =
+                    ctx.search(baseDN, query, searchControls);
+            try {
+                // hasMore call for referral resolution ... it fails with AD
+                // while (proceed && results.hasMore()) {
+                while (proceed && results.hasMoreElements()) {
+                    final SearchResult result = results.next();
+                    entries++;
+                    bytes += PageSizeController.estimateSize(result);
+
+                    final long handlerStart = System.nanoTime();
+                    proceed = handler.handle(baseDN, result);
+                    handlerNanos += System.nanoTime() - handlerStart;
+                }
+            } finally {
+                results.close();
+            }
+            cookie = getResponseCookie(ctx.getResponseControls());
+
+            pager.pageDone(entries, (System.nanoTime() - start - handlerNanos) / 1000000L, bytes);
+        } while (proceed && cookie != null);
+
+        return proceed;
+    }
+
+    /**
+     * Runs a paged search below the given base DN, letting a fetcher thread request the next page while the
+     * current one is being handled. At most two pages are held in memory: the one being handled and the one
+     * being fetched, handed off as soon as the former has been consumed.
+     *
+     * @return <tt>false</tt> if the handler asked to stop.
+     */
+    private boolean searchBaseDNPrefetching(
+            final LdapContext ctx,
+            final String baseDN,
+            final String query,
+            final SearchControls searchControls,
+            final SearchResultsHandler handler,
+            final PageSizeController pager)
+            throws IOException, NamingException {
+
+        final SynchronousQueue<Page> queue = new SynchronousQueue<Page>();
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+        final Thread fetcher = new Thread("Page fetcher for " + baseDN) {
+
+            @Override
+            public void run() {
+                try {
+                    byte[] cookie = null;
+                    do {
+                        final int size = pager.getPageSize();
+                        ctx.setRequestControls(
+                                new Control[]{new PagedResultsControl(
+                                    size, cookie, Control.CRITICAL)});
+
+                        final long start = System.nanoTime();
+                        long bytes = 0;
+
+                        final List<SearchResult> entries = new ArrayList<SearchResult>(size);
+                        NamingEnumeration<SearchResult> results =
+                                ctx.search(baseDN, query, searchControls);
+                        try {
+                            while (results.hasMoreElements()) {
+                                final SearchResult result = results.next();
+                                entries.add(result);
+                                bytes += PageSizeController.estimateSize(result);
+                            }
+                        } finally {
+                            results.close();
+                        }
+                        cookie = getResponseCookie(ctx.getResponseControls());
+
+                        pager.pageDone(entries.size(), (System.nanoTime() - start) / 1000000L, bytes);
+
+                        if (!offer(queue, new Page(entries, cookie == null, null), cancelled)) {
+                            return;
+                        }
+                    } while (cookie != null);
+                } catch (Exception e) {
+                    offer(queue, new Page(null, true, e), cancelled);
+                }
+            }
+        };
+        fetcher.setDaemon(true);
+        fetcher.start();
+
+        boolean proceed = true;
+        try {
+            Page page;
+            do {
+                try {
+                    page = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new NamingException("Interrupted while waiting for search results");
+                }
+
+                if (page.failure != null) {
+                    throwFailure(page.failure);
+                }
+
+                final Iterator<SearchResult> entries = page.entries.iterator();
+                while (proceed && entries.hasNext()) {
+                    proceed = handler.handle(baseDN, entries.next());
+                }
+            } while (proceed && !page.last);
+        } finally {
+            cancelled.set(true);
+
+            // the context must not be used by the fetcher anymore once this method returns
+            try {
+                fetcher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return proceed;
+    }
+
+    /**
+     * Searches base DNs concurrently, each worker on its own pooled context. Results are handed off through a
+     * bounded queue to the calling thread, which is the only one invoking the given handler.
+     * Each worker ends by handing off either a failure or the end-of-work marker.
+     */
+    private void doConcurrentSearch(
+            final List<String> baseDNs,
+            final String query,
+            final SearchControls searchControls,
+            final SearchResultsHandler handler,
+            final PageSizeController pager,
+            final int workers)
+            throws IOException, NamingException {
+
+        if (LOG.isOk()) {
+            LOG.ok("Searching {0} base DNs with {1} workers", baseDNs.size(), workers);
+        }
+
+        final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<String>(baseDNs);
+        final BlockingQueue<Item> queue = new ArrayBlockingQueue<Item>(Math.max(pageSize, 1) * workers);
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        Item last = Item.END;
+                        boolean broken = false;
+
+                        LdapContext pooled = null;
+                        try {
+                            pooled = conn.borrowContext();
+
+                            // request controls must not stick to the pooled context
+                            final LdapContext ctx = pooled.newInstance(null);
+                            try {
+                                final SearchResultsHandler enqueuer = new SearchResultsHandler() {
+
+                                    @Override
+                                    public boolean handle(final String baseDN, final SearchResult result) {
+                                        return offer(queue, new Item(baseDN, result, null), cancelled);
+                                    }
+                                };
+
+                                String baseDN;
+                                while (!cancelled.get() && (baseDN = pending.poll()) != null) {
+                                    searchBaseDN(ctx, baseDN, query, searchControls, enqueuer, pager);
+                                }
+                            } finally {
+                                ctx.close();
+                            }
+                        } catch (Exception e) {
+                            broken = ADConnection.isCommunicationFailure(e);
+                            last = new Item(null, null, e);
+                        } finally {
+                            if (pooled != null) {
+                                conn.returnContext(pooled, broken);
+                            }
+                            offer(queue, last, cancelled);
                         }
-                    } finally {
-                        results.close();
                     }
-                    cookie = getResponseCookie(ctx.getResponseControls());
-                } while (cookie != null);
+                });
+            }
+
+            int running = workers;
+            while (running > 0) {
+                final Item item;
+                try {
+                    item = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new NamingException("Interrupted while waiting for search results");
+                }
+
+                if (item == Item.END) {
+                    running--;
+                } else if (item.failure != null) {
+                    throwFailure(item.failure);
+                } else if (!handler.handle(item.baseDN, item.result)) {
+                    return;
+                }
             }
         } finally {
-            ctx.close();
+            cancelled.set(true);
+            queue.clear();
+            executor.shutdown();
+
+            try {
+                executor.awaitTermination(OFFER_TIMEOUT * 2, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits for room in the queue unless the search gets cancelled.
+     *
+     * @return <tt>false</tt> if the search has been cancelled.
+     */
+    private static <T> boolean offer(final BlockingQueue<T> queue, final T item, final AtomicBoolean cancelled) {
+        try {
+            while (!cancelled.get()) {
+                if (queue.offer(item, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return false;
+    }
+
+    private static void throwFailure(final Exception failure) throws IOException, NamingException {
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof NamingException) {
+            throw (NamingException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+
+        final NamingException ne = new NamingException(failure.getMessage());
+        ne.setRootCause(failure);
+        throw ne;
+    }
+
+    /**
+     * Page of search results, or failure, handed off by the page fetcher.
+     */
+    private static class Page {
+
+        private final List<SearchResult> entries;
+
+        private final boolean last;
+
+        private final Exception failure;
+
+        public Page(final List<SearchResult> entries, final boolean last, final Exception failure) {
+            this.entries = entries;
+            this.last = last;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Search result, failure or end-of-work marker handed off by a worker.
+     */
+    private static class Item {
+
+        private static final Item END = new Item(null, null, null);
+
+        private final String baseDN;
+
+        private final SearchResult result;
+
+        private final Exception failure;
+
+        public Item(final String baseDN, final SearchResult result, final Exception failure) {
+            this.baseDN = baseDN;
+            this.result = result;
+            this.failure = failure;
         }
     }
 
@@ -52,6 +52,10 @@ public class ADVlvIndexSearchStrategy extends VlvIndexSearchStrategy {
 
     private final int blockSize;
 
+    private final int maxPageSize;
+
+    private final boolean adaptivePageSize;
+
     private int index;
 
     private int lastListSize;
@@ -80,9 +84,25 @@ public class ADVlvIndexSearchStrategy extends VlvIndexSearchStrategy {
     }
 
     public ADVlvIndexSearchStrategy(String vlvSortAttr, int blockSize) {
+        this(vlvSortAttr, blockSize, 0, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param vlvSortAttr VLV sort attribute.
+     * @param blockSize (initial) block size.
+     * @param maxPageSize server's maximum page size.
+     * @param adaptivePageSize whether to adapt block size to observed latency and entry size.
+     */
+    public ADVlvIndexSearchStrategy(
+            String vlvSortAttr, int blockSize, int maxPageSize, boolean adaptivePageSize) {
+
         super(vlvSortAttr, blockSize);
         this.vlvIndexAttr = isNotBlank(vlvSortAttr) ? vlvSortAttr : "uid";
         this.blockSize = blockSize;
+        this.maxPageSize = maxPageSize;
+        this.adaptivePageSize = adaptivePageSize;
     }
 
     @Override
@@ -101,14 +121,17 @@ public class ADVlvIndexSearchStrategy extends VlvIndexSearchStrategy {
         Iterator<String> baseDNIter = baseDNs.iterator();
         boolean proceed = true;
 
+        final PageSizeController pager = new PageSizeController(blockSize, maxPageSize, adaptivePageSize);
+
         LdapContext ctx = initCtx.newInstance(null);
         try {
             while (baseDNIter.hasNext() && proceed) {
                 proceed = searchBaseDN(
-                        ctx, baseDNIter.next(), query, searchControls, handler);
+                        ctx, baseDNIter.next(), query, searchControls, handler, pager);
             }
         } finally {
             ctx.close();
+            pager.report();
         }
     }
 
@@ -117,7 +140,8 @@ public class ADVlvIndexSearchStrategy extends VlvIndexSearchStrategy {
             final String baseDN,
             final String query,
             final SearchControls searchControls,
-            final SearchResultsHandler handler)
+            final SearchResultsHandler handler,
+            final PageSizeController pager)
             throws IOException, NamingException {
 
         if (LOG.isOk()) {
@@ -134,7 +158,8 @@ public class ADVlvIndexSearchStrategy extends VlvIndexSearchStrategy {
             SortControl sortControl =
                     new SortControl(vlvIndexAttr, Control.CRITICAL);
 
-            int afterCount = blockSize - 1;
+            final int size = pager.getPageSize();
+            int afterCount = size - 1;
             VirtualListViewControl vlvControl = new VirtualListViewControl(
                     index, lastListSize, 0, afterCount, Control.CRITICAL);
             vlvControl.setContextID(cookie);
@@ -152,7 +177,10 @@ public class ADVlvIndexSearchStrategy extends VlvIndexSearchStrategy {
             // invalidate anything we might have sent otherwise).
             // So storing the results before actually sending them to the handler.
             List<SearchResult> resultList =
-                    new ArrayList<SearchResult>(blockSize);
+                    new ArrayList<SearchResult>(size);
+
+            final long start = System.nanoTime();
+            long bytes = 0;
 
             NamingEnumeration<SearchResult> results =
                     ctx.search(baseDN, query, searchControls);
@@ -175,6 +203,7 @@ public class ADVlvIndexSearchStrategy extends VlvIndexSearchStrategy {
 
                     if (!overlap) {
                         resultList.add(result);
+                        bytes += PageSizeController.estimateSize(result);
                     }
                 }
             } finally {
@@ -183,6 +212,8 @@ public class ADVlvIndexSearchStrategy extends VlvIndexSearchStrategy {
 
             processResponseControls(ctx.getResponseControls());
 
+            pager.pageDone(resultList.size(), (System.nanoTime() - start) / 1000000L, bytes);
+
             SearchResult result = null;
             Iterator<SearchResult> resultIter = resultList.iterator();
             while (resultIter.hasNext()) {
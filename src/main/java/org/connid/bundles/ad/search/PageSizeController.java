@@ -0,0 +1,163 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.search;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchResult;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Picks the page size of a search, page after page: when adaptive, the page size is grown or shrunk so that each
+ * page takes about <tt>TARGET_PAGE_MILLIS</tt> to be returned by the server and holds about
+ * <tt>TARGET_PAGE_BYTES</tt>, within the server's maximum page size.
+ */
+public class PageSizeController {
+
+    private static final Log LOG = Log.getLog(PageSizeController.class);
+
+    public static final int MIN_PAGE_SIZE = 10;
+
+    /**
+     * Active Directory default MaxPageSize.
+     */
+    public static final int DEFAULT_MAX_PAGE_SIZE = 1000;
+
+    private static final long TARGET_PAGE_MILLIS = 2000L;
+
+    private static final long TARGET_PAGE_BYTES = 4L * 1024 * 1024;
+
+    private final boolean adaptive;
+
+    private final int maxPageSize;
+
+    private int pageSize;
+
+    private int smallest;
+
+    private int largest;
+
+    private int pages = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param pageSize initial page size.
+     * @param maxPageSize server's maximum page size.
+     * @param adaptive whether to adapt page size or to always use the initial one.
+     */
+    public PageSizeController(final int pageSize, final int maxPageSize, final boolean adaptive) {
+        this.adaptive = adaptive;
+        this.maxPageSize = maxPageSize > 0 ? maxPageSize : DEFAULT_MAX_PAGE_SIZE;
+        this.pageSize = adaptive ? Math.max(MIN_PAGE_SIZE, Math.min(pageSize, this.maxPageSize)) : pageSize;
+        this.smallest = this.pageSize;
+        this.largest = this.pageSize;
+    }
+
+    public synchronized int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Takes a page into account for the next page size.
+     *
+     * @param entries number of entries returned.
+     * @param millis milliseconds spent by the server to return the page.
+     * @param bytes estimated page size in bytes.
+     */
+    public synchronized void pageDone(final int entries, final long millis, final long bytes) {
+        pages++;
+
+        if (!adaptive || entries == 0) {
+            return;
+        }
+
+        final double byTime = millis > 0 ? TARGET_PAGE_MILLIS * entries / (double) millis : Double.MAX_VALUE;
+        final double byBytes = bytes > 0 ? TARGET_PAGE_BYTES * entries / (double) bytes : Double.MAX_VALUE;
+
+        // never more than double or halve at once
+        long next = (long) Math.min(byTime, byBytes);
+        next = Math.max(pageSize / 2, Math.min(next, pageSize * 2L));
+        next = Math.max(MIN_PAGE_SIZE, Math.min(next, maxPageSize));
+
+        if (next != pageSize) {
+            if (LOG.isOk()) {
+                LOG.ok("Page of {0} entries returned in {1} ms, {2} bytes: page size changed from {3} to {4}",
+                        entries, millis, bytes, pageSize, next);
+            }
+
+            pageSize = (int) next;
+            smallest = Math.min(smallest, pageSize);
+            largest = Math.max(largest, pageSize);
+        }
+    }
+
+    /**
+     * Logs the page sizes picked so far.
+     */
+    public synchronized void report() {
+        if (adaptive && LOG.isInfo()) {
+            LOG.info("Adaptive paging: {0} pages, page size between {1} and {2}, last {3} (server max {4})",
+                    pages, smallest, largest, pageSize, maxPageSize);
+        }
+    }
+
+    /**
+     * Estimates the size of the given search result, as the sum of its name, attribute names and values.
+     *
+     * @param result search result.
+     * @return estimated size in bytes.
+     */
+    public static long estimateSize(final SearchResult result) {
+        long size = result.getName() == null ? 0 : result.getName().length();
+
+        final Attributes attrs = result.getAttributes();
+        if (attrs == null) {
+            return size;
+        }
+
+        try {
+            final NamingEnumeration<? extends Attribute> attrEnum = attrs.getAll();
+            while (attrEnum.hasMoreElements()) {
+                final Attribute attr = attrEnum.next();
+                size += attr.getID().length();
+
+                final NamingEnumeration<?> values = attr.getAll();
+                while (values.hasMoreElements()) {
+                    final Object value = values.next();
+                    if (value instanceof byte[]) {
+                        size += ((byte[]) value).length;
+                    } else if (value != null) {
+                        size += value.toString().length();
+                    }
+                }
+            }
+        } catch (NamingException e) {
+            LOG.ok(e, "Could not estimate search result size");
+        }
+
+        return size;
+    }
+}
@@ -22,31 +22,67 @@
  */
 package org.connid.bundles.ad.sync;
 
-import com.sun.jndi.ldap.ctl.DirSyncResponseControl;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.naming.CommunicationException;
+import javax.naming.InvalidNameException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
+import javax.naming.directory.InvalidSearchFilterException;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
 import org.connid.bundles.ad.ADConfiguration;
 import org.connid.bundles.ad.ADConnection;
+import org.connid.bundles.ad.ADConnector;
+import org.connid.bundles.ad.search.ADSearch;
 import org.connid.bundles.ad.util.ADUtilities;
 import org.connid.bundles.ad.util.DeletedControl;
 import org.connid.bundles.ad.util.DirSyncControl;
+import org.connid.bundles.ad.util.DirSyncResponse;
 import org.connid.bundles.ad.util.DirSyncUtils;
+import org.connid.bundles.ad.util.FilterEvaluator;
+import org.connid.bundles.ldap.search.LdapFilter;
 import org.connid.bundles.ldap.search.LdapInternalSearch;
+import org.connid.bundles.ldap.search.SearchResultsHandler;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.SyncDelta;
 import org.identityconnectors.framework.common.objects.SyncDeltaBuilder;
 import org.identityconnectors.framework.common.objects.SyncDeltaType;
@@ -61,167 +97,1333 @@ public class ADSyncStrategy {
 
     private static final Log LOG = Log.getLog(ADSyncStrategy.class);
 
+    /**
+     * Milliseconds a worker waits for room in the hand-off queue before checking for cancellation again.
+     */
+    private static final long OFFER_TIMEOUT = 500L;
+
+    /**
+     * With change notifications, maximum amount of milliseconds between DirSync rounds.
+     */
+    private static final long NOTIFICATION_FALLBACK_INTERVAL = 15 * 60 * 1000L;
+
+    /**
+     * Only lets DirSync cookies be collected.
+     */
+    /**
+     * Well-known GUID of the Deleted Objects container of each naming context.
+     */
+    private static final String DELETED_OBJECTS_WKGUID = "18E2EA80684F11D2B9AA00C04F79F805";
+
+    private static final DirSyncHandler IGNORE_CHANGES = new DirSyncHandler() {
+
+        @Override
+        public boolean handle(final String baseDN, final SearchResult result) {
+            return true;
+        }
+
+        @Override
+        public boolean batchDone(final String baseDN, final byte[] cookie) {
+            return true;
+        }
+    };
+
     private final transient ADConnection conn;
 
-    private transient SyncToken latestSyncToken;
+    private transient volatile SyncToken latestSyncToken;
+
+    /**
+     * Checkpoint journal of the synchronization in progress, if configured.
+     */
+    private transient CheckpointJournal journal;
+
+    /**
+     * Change notifications taken into account by the last DirSync round, per object class.
+     */
+    private final Map<String, Long> notificationsSeen = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Time of the last DirSync round, per object class.
+     */
+    private final Map<String, Long> lastRounds = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Profiles read while handling the current batch of changes, by lowercase DN.
+     */
+    private final Map<String, Attributes> batchProfiles = new ConcurrentHashMap<String, Attributes>();
+
+    private final ADUtilities utils;
+
+    public ADSyncStrategy(final ADConnection conn) {
+        this.conn = conn;
+        this.utils = new ADUtilities(conn);
+    }
+
+    /**
+     * Run DirSync search from each base context to synchronize, handing each change to the given handler as soon as
+     * read. Base contexts are searched either one after another or, when configured, concurrently - each on its own
+     * sync context; in any case, changes are handed to the handler by the calling thread, one at a time.
+     * The cookie of each base context in the given token is advanced once all the changes of a batch have been
+     * handled: the handler is notified right before.
+     *
+     * @return <tt>false</tt> if the handler asked to stop.
+     */
+    private boolean search(
+            final DirSyncToken token,
+            final String filter,
+            final SearchControls searchCtls,
+            final DirSyncHandler handler) {
+
+        final List<String> baseContextDns = Arrays.asList(conn.getConfiguration().getBaseContextsToSynchronize());
+
+        final int workers = Math.min(((ADConfiguration) conn.getConfiguration()).getSyncThreads(),
+                baseContextDns.size());
+        if (workers > 1) {
+            return searchConcurrently(baseContextDns, workers, token, filter, searchCtls, handler);
+        }
+
+        final DirSyncHandler dirSyncHandler = new DirSyncHandler() {
+
+            @Override
+            public boolean handle(final String baseDN, final SearchResult result)
+                    throws NamingException {
+
+                return handler.handle(baseDN, result);
+            }
+
+            @Override
+            public boolean batchDone(final String baseDN, final byte[] cookie) {
+                if (!handler.batchDone(baseDN, cookie)) {
+                    return false;
+                }
+
+                checkpoint(token, baseDN, cookie);
+                return true;
+            }
+        };
+
+        for (String baseContextDn : baseContextDns) {
+            if (!searchBaseContext(baseContextDn, token.getCookie(baseContextDn), filter, searchCtls, dirSyncHandler)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Run DirSync searches of several base contexts at once: workers enqueue changes and batch checkpoints, consumed
+     * by the calling thread in the order they have been read from each base context.
+     *
+     * @return <tt>false</tt> if the handler asked to stop.
+     */
+    private boolean searchConcurrently(
+            final List<String> baseContextDns,
+            final int workers,
+            final DirSyncToken token,
+            final String filter,
+            final SearchControls searchCtls,
+            final DirSyncHandler handler) {
+
+        if (LOG.isOk()) {
+            LOG.ok("Synchronizing {0} base contexts with {1} workers", baseContextDns.size(), workers);
+        }
+
+        final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<String>(baseContextDns);
+        final BlockingQueue<Item> queue = new ArrayBlockingQueue<Item>(
+                Math.max(((ADConfiguration) conn.getConfiguration()).getSyncQueueSize(), 1));
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+        final DirSyncHandler enqueuer = new DirSyncHandler() {
+
+            @Override
+            public boolean handle(final String baseDN, final SearchResult result) {
+                return offer(queue, new Item(baseDN, result, null, null), cancelled);
+            }
+
+            @Override
+            public boolean batchDone(final String baseDN, final byte[] cookie) {
+                return offer(queue, new Item(baseDN, null, cookie, null), cancelled);
+            }
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            for (int i = 0; i < workers; i++) {
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        Item last = Item.END;
+
+                        try {
+                            String baseContextDn;
+                            while (!cancelled.get() && (baseContextDn = pending.poll()) != null) {
+                                searchBaseContext(baseContextDn, token.getCookie(baseContextDn),
+                                        filter, searchCtls, enqueuer);
+                            }
+                        } catch (RuntimeException e) {
+                            last = new Item(null, null, null, e);
+                        } finally {
+                            offer(queue, last, cancelled);
+                        }
+                    }
+                });
+            }
+
+            int running = workers;
+            while (running > 0) {
+                final Item item;
+                try {
+                    item = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ConnectorException("Interrupted while waiting for DirSync results", e);
+                }
+
+                if (item == Item.END) {
+                    running--;
+                } else if (item.failure != null) {
+                    throw item.failure;
+                } else if (item.cookie != null) {
+                    if (!handler.batchDone(item.baseDN, item.cookie)) {
+                        return false;
+                    }
+
+                    checkpoint(token, item.baseDN, item.cookie);
+                } else {
+                    try {
+                        if (!handler.handle(item.baseDN, item.result)) {
+                            return false;
+                        }
+                    } catch (NamingException e) {
+                        LOG.error(e, "While handling {0} from base context {1}", item.result.getName(), item.baseDN);
+                    }
+                }
+            }
+        } finally {
+            cancelled.set(true);
+            queue.clear();
+            executor.shutdown();
+
+            try {
+                executor.awaitTermination(OFFER_TIMEOUT * 2, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Run DirSync search from the given base context: as long as the server reports more data, further DirSync
+     * searches are issued with the returned cookie, notified to the handler once all the changes of each of such
+     * batches have been handed to it.
+     *
+     * @return <tt>false</tt> if the handler asked to stop.
+     */
+    private boolean searchBaseContext(
+            final String baseContextDn,
+            final byte[] cookie,
+            final String filter,
+            final SearchControls searchCtls,
+            final DirSyncHandler handler) {
+
+        if (LOG.isOk()) {
+            LOG.ok("Searching from " + baseContextDn);
+        }
+
+        final int maxAttrCount = ((ADConfiguration) conn.getConfiguration()).getDirSyncMaxAttrCount();
+
+        try {
+            byte[] batchCookie = cookie;
+            boolean moreData;
+            int batch = 0;
+
+            do {
+                batch++;
+
+                final LdapContext ctx = conn.getSyncContext(baseContextDn, new Control[]{new DirSyncControl(
+                    maxAttrCount > 0 ? maxAttrCount : Integer.MAX_VALUE, true, batchCookie)});
+
+                final NamingEnumeration<SearchResult> answer = ctx.search(baseContextDn, filter, searchCtls);
+
+                while (answer.hasMoreElements()) {
+                    if (!handler.handle(baseContextDn, answer.nextElement())) {
+                        if (LOG.isOk()) {
+                            LOG.ok("Sync stopped by handler: sync token not updated");
+                        }
+
+                        answer.close();
+                        return false;
+                    }
+                }
+
+                final DirSyncResponse response = DirSyncResponse.getInstance(ctx.getResponseControls());
+
+                if (response == null) {
+                    LOG.warn("No DirSync response control from {0}", baseContextDn);
+                    moreData = false;
+                } else {
+                    batchCookie = response.getCookie();
+                    moreData = response.isMoreData();
+
+                    if (LOG.isOk()) {
+                        LOG.ok("Batch {0} from {1} read; more data: {2}", batch, baseContextDn, moreData);
+                    }
+
+                    if (!handler.batchDone(baseContextDn, batchCookie)) {
+                        return false;
+                    }
+                }
+            } while (moreData);
+        } catch (NamingException e) {
+            LOG.error(e, "While searching base context {0} with filter {1} and search controls {2}",
+                    baseContextDn, filter.toString(), searchCtls);
+
+            if (e instanceof CommunicationException) {
+                // a new sync context will be established by next sync call
+                conn.invalidateSyncContext(baseContextDn);
+            }
+        } catch (IOException e) {
+            LOG.error(e, "While encoding or decoding DirSync controls for base context {0}", baseContextDn);
+        }
+
+        return true;
+    }
+
+    /**
+     * Advance the cookie of the given base context: from now on, deltas carry the updated token.
+     */
+    private void checkpoint(final DirSyncToken token, final String baseContextDn, final byte[] cookie) {
+        token.setCookie(baseContextDn, cookie);
+        setLatestSyncToken(token.toSyncToken());
+
+        if (LOG.isOk()) {
+            LOG.ok("Checkpoint for {0}: latest sync token set to {1}", baseContextDn, latestSyncToken);
+        }
+    }
+
+    /**
+     * Waits for room in the queue unless the search gets cancelled.
+     *
+     * @return <tt>false</tt> if the search has been cancelled.
+     */
+    private static boolean offer(final BlockingQueue<Item> queue, final Item item, final AtomicBoolean cancelled) {
+        try {
+            while (!cancelled.get()) {
+                if (queue.offer(item, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return false;
+    }
+
+    public void sync(
+            final SyncToken token,
+            final SyncResultsHandler handler,
+            final OperationOptions options,
+            final ObjectClass oclass) {
+
+        // waiting for notifications must not hold the lock, or other operations would wait as well
+        if (((ADConfiguration) conn.getConfiguration()).isChangeNotification() && !isChangeNotified(token, oclass)) {
+            if (LOG.isOk()) {
+                LOG.ok("No change notified since last synchronization of {0}: skipping DirSync", oclass);
+            }
+            return;
+        }
+
+        synchronized (this) {
+            journaledSync(token, handler, options, oclass);
+        }
+    }
+
+    private void journaledSync(
+            final SyncToken token,
+            final SyncResultsHandler handler,
+            final OperationOptions options,
+            final ObjectClass oclass) {
+
+        final String journalPath = ((ADConfiguration) conn.getConfiguration()).getCheckpointJournal();
+        if (StringUtil.isBlank(journalPath)) {
+            sync(token, handler, options, oclass, null);
+            return;
+        }
+
+        // each object class is synchronized from its own token: one journal each
+        final CheckpointJournal checkpointJournal = new CheckpointJournal(getJournalFile(journalPath, oclass));
+        try {
+            sync(checkpointJournal.begin(token), checkpointJournal.track(handler), options, oclass, checkpointJournal);
+        } catch (IOException e) {
+            throw new ConnectorException("While reading checkpoint journal " + journalPath, e);
+        } finally {
+            try {
+                checkpointJournal.close();
+            } catch (IOException e) {
+                LOG.error(e, "While closing checkpoint journal {0}", journalPath);
+            }
+        }
+    }
+
+    /**
+     * Get the journal of the given object class, e.g. <tt>sync.journal.account</tt> for <tt>__ACCOUNT__</tt>.
+     *
+     * @param journalPath configured checkpoint journal path.
+     * @param oclass object class being synchronized.
+     * @return journal file.
+     */
+    static File getJournalFile(final String journalPath, final ObjectClass oclass) {
+        return new File(journalPath + "." + oclass.getObjectClassValue().replaceAll("[^A-Za-z0-9]", "").toLowerCase());
+    }
+
+    private void sync(
+            final SyncToken token,
+            final SyncResultsHandler handler,
+            final OperationOptions options,
+            final ObjectClass oclass,
+            final CheckpointJournal checkpointJournal) {
+
+        journal = checkpointJournal;
+
+        // pooled context used to read objects and group memberships during delta handling
+        boolean broken = false;
+        final LdapContext pooledCtx = conn.borrowContext();
+        try {
+            doSync(pooledCtx, token, handler, options, oclass);
+        } catch (RuntimeException e) {
+            broken = ADConnection.isCommunicationFailure(e);
+            throw e;
+        } finally {
+            conn.returnContext(pooledCtx, broken);
+            journal = null;
+        }
+    }
+
+    private void doSync(
+            final LdapContext pooledCtx,
+            final SyncToken token,
+            final SyncResultsHandler handler,
+            final OperationOptions options,
+            final ObjectClass oclass) {
+
+        if (((ADConfiguration) conn.getConfiguration()).isUsnChangedSync()) {
+            doUSNSync(pooledCtx, token, handler, options, oclass);
+            return;
+        }
+
+        final Map<String, Set<String>> attrsToGet = getAttributesToGet(options, oclass);
+
+        // -----------------------------------
+        // Create search control
+        // -----------------------------------
+        final SearchControls searchCtls = LdapInternalSearch.createDefaultSearchControls();
+
+        searchCtls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+
+        searchCtls.setReturningAttributes(getDirSyncAttributes(attrsToGet));
+
+        final String[] profileAttrs = getProfileAttributes(attrsToGet);
+        // -----------------------------------
+
+        // -----------------------------------
+        // Get DirSync cookies
+        // -----------------------------------
+        final DirSyncToken dirSyncToken = DirSyncToken.getInstance(token);
+
+        if (dirSyncToken.isInitialLoad()) {
+            if (LOG.isOk()) {
+                LOG.ok("Resuming interrupted fast initial load.");
+            }
+
+            fastInitialLoad(dirSyncToken, handler, options, oclass);
+            return;
+        }
+
+        if (dirSyncToken.isEmpty()) {
+            if (LOG.isOk()) {
+                LOG.ok("Synchronization with empty token.");
+            }
+
+            if (((ADConfiguration) conn.getConfiguration()).isStartSyncFromToday()) {
+                skipChanges(dirSyncToken);
+                return;
+            }
+
+            if (((ADConfiguration) conn.getConfiguration()).isFastInitialLoad()) {
+                fastInitialLoad(dirSyncToken, handler, options, oclass);
+                return;
+            }
+
+        } else {
+            if (LOG.isOk()) {
+                LOG.ok("Synchronization with token.");
+            }
+        }
+        // -----------------------------------
+
+        // -----------------------------------
+        // Create search filter
+        // -----------------------------------
+        final String filter = createFilter(oclass);
+
+        if (LOG.isOk()) {
+            LOG.ok("Search filter: " + filter);
+        }
+        // -----------------------------------
+
+        final AckSyncResultsHandler ackHandler = new AckSyncResultsHandler(handler);
+
+        // changes are handled on a pooled context while the sync context is still reading the DirSync response;
+        // a dedicated instance keeps request controls set while handling off the pooled context
+        final LdapContext handlingCtx;
+        try {
+            handlingCtx = pooledCtx.newInstance(null);
+        } catch (NamingException e) {
+            throw new ConnectorException("Could not create context for delta handling", e);
+        }
+
+        // changes are collected and hydrated in batches, always before the token is advanced past them
+        final List<Item> pending = new ArrayList<Item>();
+        final int batchSize = ((ADConfiguration) conn.getConfiguration()).getHydrationBatchSize();
+
+        // deltas of a batch may be computed concurrently, but are always delivered in order
+        final int hydrationThreads = ((ADConfiguration) conn.getConfiguration()).getHydrationThreads();
+        final ExecutorService executor = hydrationThreads > 1 ? Executors.newFixedThreadPool(hydrationThreads) : null;
+
+        try {
+            final boolean proceed = search(dirSyncToken, filter, searchCtls, new DirSyncHandler() {
+
+                @Override
+                public boolean handle(final String baseDN, final SearchResult sr) {
+                    pending.add(new Item(baseDN, sr, null, null));
+
+                    return pending.size() < batchSize || handleDeltas(handlingCtx, executor, pending,
+                            hydrate(handlingCtx, pending, oclass, profileAttrs), oclass, attrsToGet, ackHandler);
+                }
+
+                @Override
+                public boolean batchDone(final String baseDN, final byte[] cookie) {
+                    return handleDeltas(handlingCtx, executor, pending,
+                            hydrate(handlingCtx, pending, oclass, profileAttrs), oclass, attrsToGet, ackHandler);
+                }
+            });
+
+            if (proceed) {
+                handleDeltas(handlingCtx, executor, pending,
+                        hydrate(handlingCtx, pending, oclass, profileAttrs), oclass, attrsToGet, ackHandler);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+
+            try {
+                handlingCtx.close();
+            } catch (NamingException e) {
+                LOG.ok(e, "Failure closing delta handling context");
+            }
+        }
+    }
+
+    /**
+     * Synchronize by looking for objects whose uSNChanged is not lower than the one in the given token, on the
+     * domain controller which issued it. Unlike DirSync, no replication right is required; on the other hand,
+     * changes are reported at object level only, e.g. without group membership changes as seen from members.
+     * Deleted objects are moved out of their base context: they are read from the Deleted Objects container of each
+     * naming context, and told apart by their last known parent.
+     */
+    private void doUSNSync(
+            final LdapContext pooledCtx,
+            final SyncToken token,
+            final SyncResultsHandler handler,
+            final OperationOptions options,
+            final ObjectClass oclass) {
+
+        final ADConfiguration conf = (ADConfiguration) conn.getConfiguration();
+
+        final LdapContext handlingCtx;
+        final LdapContext searchCtx;
+        try {
+            handlingCtx = pooledCtx.newInstance(null);
+            searchCtx = pooledCtx.newInstance(null);
+        } catch (NamingException e) {
+            throw new ConnectorException("Could not create context for uSNChanged sync", e);
+        }
+
+        final ExecutorService executor = conf.getHydrationThreads() > 1
+                ? Executors.newFixedThreadPool(conf.getHydrationThreads()) : null;
+
+        try {
+            // -----------------------------------
+            // Read domain controller state
+            // -----------------------------------
+            final USNSyncToken next = readUSNSyncToken(handlingCtx);
+            final long highestCommittedUSN = next.getUsn() - 1;
+            final String invocationId = next.getInvocationId();
+
+            USNSyncToken usnToken = USNSyncToken.getInstance(token);
+
+            if (usnToken != null && !invocationId.equalsIgnoreCase(usnToken.getInvocationId())) {
+                LOG.warn("Sync token {0} issued by another domain controller than {1}: full synchronization",
+                        usnToken, invocationId);
+                usnToken = null;
+            }
+
+            if (usnToken == null) {
+                if (LOG.isOk()) {
+                    LOG.ok("Synchronization with empty token.");
+                }
+
+                if (conf.isStartSyncFromToday()) {
+                    setLatestSyncToken(next.toSyncToken());
+                    return;
+                }
+            } else {
+                if (LOG.isOk()) {
+                    LOG.ok("Synchronization with token {0}.", usnToken);
+                }
+            }
+            // -----------------------------------
+
+            final String changed = "(uSNChanged>=" + (usnToken == null ? 0 : usnToken.getUsn()) + ")"
+                    + "(uSNChanged<=" + highestCommittedUSN + ")";
+
+            // live objects are read from each base context, deleted ones from its Deleted Objects container
+            final Map<String, String> filters = new LinkedHashMap<String, String>();
+            for (String baseContextDn : conf.getBaseContextsToSynchronize()) {
+                filters.put(baseContextDn, "(&" + changed + "(!(isDeleted=TRUE))" + createFilter(oclass) + ")");
+            }
+            final Set<String> deletedObjects = new HashSet<String>();
+            for (String baseContextDn : conf.getBaseContextsToSynchronize()) {
+                final String container = getDeletedObjectsContainer(baseContextDn);
+                if (deletedObjects.add(container)) {
+                    filters.put(container, "(&" + changed + "(isDeleted=TRUE)" + createFilter(oclass) + ")");
+                }
+            }
+
+            if (LOG.isOk()) {
+                LOG.ok("Search filters: " + filters);
+            }
+
+            final Map<String, Set<String>> attrsToGet = getAttributesToGet(options, oclass);
+
+            // entries found are handled as they are: no further read
+            final SearchControls searchCtls = LdapInternalSearch.createDefaultSearchControls();
+            searchCtls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+            searchCtls.setReturningAttributes(getProfileAttributes(attrsToGet));
+
+            final AckSyncResultsHandler ackHandler = new AckSyncResultsHandler(handler);
+
+            // each page is handled as a batch: entries already carry their current profiles
+            final List<Item> pending = new ArrayList<Item>();
+            final Map<String, Attributes> profiles = new HashMap<String, Attributes>();
+
+            for (Map.Entry<String, String> search : filters.entrySet()) {
+                byte[] cookie = null;
+
+                do {
+                    searchCtx.setRequestControls(new Control[]{
+                        new PagedResultsControl(conf.getBlockSize(), cookie, Control.CRITICAL),
+                        new DeletedControl()});
+
+                    final NamingEnumeration<SearchResult> answer =
+                            searchCtx.search(search.getKey(), search.getValue(), searchCtls);
+                    try {
+                        while (answer.hasMoreElements()) {
+                            final SearchResult result = answer.nextElement();
+
+                            final String baseContextDn = deletedObjects.contains(search.getKey())
+                                    ? getLastKnownBaseContext(result, conf.getBaseContextsToSynchronize())
+                                    : search.getKey();
+                            if (baseContextDn == null) {
+                                // deleted from outside the base contexts to synchronize
+                                continue;
+                            }
+
+                            pending.add(new Item(baseContextDn, result, null, null));
+                            profiles.put(DirSyncUtils.getGuidAsString(
+                                    (byte[]) result.getAttributes().get("objectGUID").get()), result.getAttributes());
+                        }
+                    } finally {
+                        answer.close();
+                    }
+
+                    cookie = getPagedResultsCookie(searchCtx.getResponseControls());
+
+                    if (!handleDeltas(handlingCtx, executor, pending, profiles, oclass, attrsToGet, ackHandler)) {
+                        if (LOG.isOk()) {
+                            LOG.ok("Sync stopped by handler: sync token not updated");
+                        }
+                        return;
+                    }
+                    profiles.clear();
+                } while (cookie != null);
+            }
+
+            // uSNChanged values are not returned in order: the token can only be advanced once all have been read
+            setLatestSyncToken(next.toSyncToken());
+
+            if (LOG.isOk()) {
+                LOG.ok("Latest sync token set to {0}", latestSyncToken);
+            }
+        } catch (NamingException e) {
+            throw new ConnectorException("While synchronizing by uSNChanged", e);
+        } catch (IOException e) {
+            throw new ConnectorException("While synchronizing by uSNChanged", e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+
+            try {
+                searchCtx.close();
+                handlingCtx.close();
+            } catch (NamingException e) {
+                LOG.ok(e, "Failure closing uSNChanged sync contexts");
+            }
+        }
+    }
+
+    /**
+     * Get the Deleted Objects container of the naming context including the given base context, bound via its
+     * well-known GUID: the container name is localized.
+     *
+     * @param baseContextDn base context.
+     * @return Deleted Objects container DN.
+     */
+    static String getDeletedObjectsContainer(final String baseContextDn) {
+        try {
+            final LdapName dn = new LdapName(baseContextDn);
+
+            // the naming context is made of the trailing domain components
+            int size = 0;
+            while (size < dn.size() && "DC".equalsIgnoreCase(dn.getRdn(size).getType())) {
+                size++;
+            }
+
+            return "<WKGUID=" + DELETED_OBJECTS_WKGUID + "," + dn.getPrefix(size) + ">";
+        } catch (InvalidNameException e) {
+            throw new ConnectorException("Invalid base context " + baseContextDn, e);
+        }
+    }
+
+    /**
+     * Get the base context to synchronize that the given deleted object was last in, if any.
+     *
+     * @param result deleted object, as read from a Deleted Objects container.
+     * @param baseContextDns base contexts to synchronize.
+     * @return base context, or <tt>null</tt> if none includes the last known parent of the given object.
+     */
+    static String getLastKnownBaseContext(final SearchResult result, final String[] baseContextDns)
+            throws NamingException {
+
+        final Attribute lastKnownParent = result.getAttributes().get("lastKnownParent");
+        if (lastKnownParent == null || lastKnownParent.get() == null) {
+            return null;
+        }
+
+        final LdapName parent = new LdapName(lastKnownParent.get().toString());
+        for (String baseContextDn : baseContextDns) {
+            if (parent.startsWith(new LdapName(baseContextDn))) {
+                return baseContextDn;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Read the token to synchronize by uSNChanged from, next time: just after the domain controller's highest
+     * committed USN.
+     */
+    private static USNSyncToken readUSNSyncToken(final LdapContext ctx) throws NamingException {
+        final Attributes rootDSE = ctx.getAttributes("", new String[]{"highestCommittedUSN", "dsServiceName"});
+        final long highestCommittedUSN = Long.parseLong(rootDSE.get("highestCommittedUSN").get().toString());
+        final String invocationId = DirSyncUtils.getGuidAsString((byte[]) ctx.getAttributes(
+                rootDSE.get("dsServiceName").get().toString(), new String[]{"invocationId"}).
+                get("invocationId").get());
+
+        return new USNSyncToken(invocationId, highestCommittedUSN + 1);
+    }
+
+    private static byte[] getPagedResultsCookie(final Control[] controls) {
+        if (controls != null) {
+            for (Control control : controls) {
+                if (control instanceof PagedResultsResponseControl) {
+                    final byte[] cookie = ((PagedResultsResponseControl) control).getCookie();
+                    return cookie == null || cookie.length == 0 ? null : cookie;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    public SyncToken getLatestSyncToken() {
+        return latestSyncToken;
+    }
+
+    /**
+     * Read the current sync token from the directory, without delivering any change.
+     * <br/>
+     * With uSNChanged, the domain controller's highest committed USN is read from rootDSE: a single lookup.
+     * <br/>
+     * With DirSync, there is no way to ask for the current cookie: it is obtained by advancing the cookies on the
+     * sync contexts through every change since the latest token known, skipping them. With no token known, this
+     * means paging through the whole DirSync stream - one entry per object in each base context - which takes as
+     * long as a full read of the domain, with no attribute but objectGUID; the strategy lock is held meanwhile, so
+     * synchronization waits for it to complete.
+     *
+     * @return latest sync token, <tt>null</tt> if it could not be read.
+     */
+    public synchronized SyncToken fetchLatestSyncToken() {
+        if (((ADConfiguration) conn.getConfiguration()).isUsnChangedSync()) {
+            boolean broken = false;
+            final LdapContext ctx = conn.borrowContext();
+            try {
+                setLatestSyncToken(readUSNSyncToken(ctx).toSyncToken());
+            } catch (NamingException e) {
+                broken = ADConnection.isCommunicationFailure(e);
+                throw new ConnectorException("While reading highest committed USN", e);
+            } catch (RuntimeException e) {
+                broken = ADConnection.isCommunicationFailure(e);
+                throw e;
+            } finally {
+                conn.returnContext(ctx, broken);
+            }
+        } else {
+            final DirSyncToken token = DirSyncToken.getInstance(latestSyncToken);
+            token.setInitialLoad(false);
+
+            skipChanges(token);
+        }
 
-    private final ADUtilities utils;
+        return latestSyncToken;
+    }
 
-    public ADSyncStrategy(final ADConnection conn) {
-        this.conn = conn;
-        this.utils = new ADUtilities(conn);
+    /**
+     * Advance the cookies of the given token up to now, skipping any change: DirSync searches match no entry and ask
+     * for no attribute but the ones always returned.
+     */
+    private void skipChanges(final DirSyncToken token) {
+        final SearchControls searchCtls = LdapInternalSearch.createDefaultSearchControls();
+        searchCtls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        searchCtls.setReturningAttributes(new String[]{"objectGUID"});
+
+        search(token, "(cn=__CONNID-NORES__)", searchCtls, IGNORE_CHANGES);
     }
 
-    private Set<SearchResult> search(
-            final LdapContext ctx,
-            final String filter,
-            final SearchControls searchCtls,
-            final boolean updateLastSyncToken) {
+    /**
+     * From now on, deltas carry the given token; when journaling, it is recorded as checkpoint.
+     */
+    private void setLatestSyncToken(final SyncToken token) {
+        latestSyncToken = token;
+
+        if (journal != null) {
+            try {
+                journal.checkpoint(token);
+            } catch (IOException e) {
+                throw new ConnectorException("While writing checkpoint journal", e);
+            }
+        }
+    }
+
+    /**
+     * Bootstrap synchronization without reading the whole domain through DirSync: the current DirSync cookies are
+     * captured first, then all the objects currently matching are delivered as CREATE_OR_UPDATE deltas, read by
+     * (paged, possibly concurrent) searches. Changes performed meanwhile will be reported again by next
+     * synchronization, starting from the captured cookies.
+     * <br/>
+     * Until the load completes, deltas carry the captured cookies marked as initial load: if interrupted, the load
+     * is performed again - with the same cookies - by next synchronization.
+     */
+    private void fastInitialLoad(
+            final DirSyncToken token,
+            final SyncResultsHandler handler,
+            final OperationOptions options,
+            final ObjectClass oclass) {
+
+        final ADConfiguration conf = (ADConfiguration) conn.getConfiguration();
+
+        if (!token.isInitialLoad() || token.isEmpty()) {
+            // checkpoints taken while capturing must already be marked
+            token.setInitialLoad(true);
+            skipChanges(token);
+        }
+
+        final SyncToken captured = token.toSyncToken();
+        setLatestSyncToken(captured);
+
+        if (LOG.isOk()) {
+            LOG.ok("Fast initial load: captured sync token {0}", captured);
+        }
+
+        final AckSyncResultsHandler ackHandler = new AckSyncResultsHandler(handler);
 
-        final Set<SearchResult> result = new HashSet<SearchResult>();
+        for (final ObjectClass loadClass : oclass.is(ObjectClass.ALL_NAME)
+                ? new ObjectClass[]{ObjectClass.ACCOUNT, ObjectClass.GROUP}
+                : new ObjectClass[]{oclass}) {
 
-        for (String baseContextDn : conn.getConfiguration().getBaseContextsToSynchronize()) {
+            if (!ackHandler.isProceed()) {
+                break;
+            }
+
+            final String membershipsFilter = loadClass.is(ObjectClass.ACCOUNT_NAME)
+                    ? DirSyncUtils.createMembershipsFilter(conf) : null;
+
+            new ADSearch(
+                    conn,
+                    loadClass,
+                    membershipsFilter == null ? null : LdapFilter.forNativeFilter(membershipsFilter),
+                    options,
+                    conf.getBaseContextsToSynchronize()).executeADQuery(new ResultsHandler() {
+
+                @Override
+                public boolean handle(final ConnectorObject object) {
+                    final SyncDeltaBuilder sdb = new SyncDeltaBuilder();
+                    sdb.setToken(captured);
+                    sdb.setDeltaType(SyncDeltaType.CREATE_OR_UPDATE);
+                    sdb.setUid(object.getUid());
+                    sdb.setObject(object);
+
+                    return ackHandler.handle(sdb.build());
+                }
+            });
+        }
+
+        if (ackHandler.isProceed()) {
+            token.setInitialLoad(false);
+            setLatestSyncToken(token.toSyncToken());
 
             if (LOG.isOk()) {
-                LOG.ok("Searching from " + baseContextDn);
+                LOG.ok("Fast initial load completed: latest sync token set to {0}", latestSyncToken);
             }
+        }
+    }
 
-            try {
-                final NamingEnumeration<SearchResult> answer = ctx.search(baseContextDn, filter, searchCtls);
+    /**
+     * Create the filter selecting the changes relevant to the given object class: when synchronizing all object
+     * classes, a single DirSync stream serves both accounts and groups.
+     */
+    private String createFilter(final ObjectClass oclass) {
+        final ADConfiguration conf = (ADConfiguration) conn.getConfiguration();
 
-                while (answer.hasMoreElements()) {
-                    result.add(answer.nextElement());
+        if (oclass.is(ObjectClass.ALL_NAME)) {
+            return "(|" + DirSyncUtils.createDirSyncUFilter(conf) + DirSyncUtils.createDirSyncGFilter(conf) + ")";
+        }
+
+        return oclass.is(ObjectClass.ACCOUNT_NAME)
+                ? // get user filter
+                DirSyncUtils.createDirSyncUFilter(conf)
+                : // get group filter
+                DirSyncUtils.createDirSyncGFilter(conf);
+    }
+
+    /**
+     * Get the attributes to get for each object class whose deltas are to be delivered.
+     *
+     * @return attributes to get, by object class name.
+     */
+    private Map<String, Set<String>> getAttributesToGet(final OperationOptions options, final ObjectClass oclass) {
+        final Map<String, Set<String>> attrsToGet = new HashMap<String, Set<String>>();
+
+        for (ObjectClass deltaClass : oclass.is(ObjectClass.ALL_NAME)
+                ? new ObjectClass[]{ObjectClass.ACCOUNT, ObjectClass.GROUP}
+                : new ObjectClass[]{oclass}) {
+
+            attrsToGet.put(deltaClass.getObjectClassValue(),
+                    utils.getAttributesToGet(options.getAttributesToGet(), deltaClass));
+        }
+
+        return attrsToGet;
+    }
+
+    /**
+     * Attributes to be returned by DirSync: the ones to be delivered plus the ones needed to tell the kind of change
+     * and to evaluate filters. Objects are then reported by DirSync only when changes involve any of these.
+     *
+     * @return attribute names, or <tt>null</tt> for all attributes if filters cannot be parsed.
+     */
+    private String[] getDirSyncAttributes(final Map<String, Set<String>> attrsToGet) {
+        final ADConfiguration conf = (ADConfiguration) conn.getConfiguration();
+
+        final Set<String> attrs = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+
+        for (Map.Entry<String, Set<String>> entry : attrsToGet.entrySet()) {
+            attrs.addAll(utils.getLdapAttributesToGet(entry.getValue(), new ObjectClass(entry.getKey())));
+        }
+
+        attrs.addAll(Arrays.asList(
+                "objectGUID", "isDeleted", "objectClass", "name", "distinguishedName", "memberOf", "member"));
+        if (StringUtil.isNotBlank(conf.getUidAttribute())) {
+            attrs.add(conf.getUidAttribute());
+        }
+
+        for (String filter : new String[]{conf.getAccountSearchFilter(), conf.getGroupSearchFilter()}) {
+            if (StringUtil.isNotBlank(filter)) {
+                try {
+                    attrs.addAll(FilterEvaluator.getInstance(filter).getAttributeNames());
+                } catch (InvalidSearchFilterException e) {
+                    LOG.warn(e, "Could not parse {0}: DirSync will return all attributes", filter);
+                    return null;
                 }
+            }
+        }
 
-                if (updateLastSyncToken) {
-                    final Control[] rspCtls = ctx.getResponseControls();
+        if (LOG.isOk()) {
+            LOG.ok("DirSync attributes: {0}", attrs);
+        }
 
-                    if (rspCtls != null) {
-                        if (LOG.isOk()) {
-                            LOG.ok("Response Controls: {0}", rspCtls.length);
-                        }
+        return attrs.toArray(new String[attrs.size()]);
+    }
+
+    /**
+     * Attributes to read the current profiles of changed objects with: the ones returned by DirSync, plus the ones
+     * telling where a change stands in the uSNChanged stream and which base context a deleted object was in.
+     *
+     * @return attribute names, or <tt>null</tt> for all attributes if filters cannot be parsed.
+     */
+    private String[] getProfileAttributes(final Map<String, Set<String>> attrsToGet) {
+        final String[] dirSyncAttrs = getDirSyncAttributes(attrsToGet);
+        if (dirSyncAttrs == null) {
+            return null;
+        }
+
+        final Set<String> attrs = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        attrs.addAll(Arrays.asList(dirSyncAttrs));
+        attrs.addAll(Arrays.asList("uSNChanged", "lastKnownParent"));
+
+        return attrs.toArray(new String[attrs.size()]);
+    }
+
+    /**
+     * Wait for a change notification, unless some has been received since the last DirSync round for the given
+     * object class. A DirSync round is anyway due at first synchronization and after
+     * <tt>NOTIFICATION_FALLBACK_INTERVAL</tt> milliseconds without notifications.
+     *
+     * @return whether a DirSync round is due.
+     */
+    private boolean isChangeNotified(final SyncToken token, final ObjectClass oclass) {
+        final Long seen = notificationsSeen.get(oclass.getObjectClassValue());
+        final Long lastRound = lastRounds.get(oclass.getObjectClassValue());
+
+        final long notifications = conn.getChangeNotifier().awaitNotification(
+                seen == null ? -1L : seen,
+                ((ADConfiguration) conn.getConfiguration()).getChangeNotificationMaxWait());
+
+        if (token == null || seen == null || lastRound == null || notifications != seen
+                || System.currentTimeMillis() - lastRound > NOTIFICATION_FALLBACK_INTERVAL) {
+
+            // notifications received from now on will trigger another round
+            notificationsSeen.put(oclass.getObjectClassValue(), notifications);
+            lastRounds.put(oclass.getObjectClassValue(), System.currentTimeMillis());
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Handle the given pending changes, in order, given their current profiles when available.
+     * When an executor is given, the deltas of each change are computed by its workers, each on its own pooled
+     * context; all deltas are delivered by the calling thread, in order, before this method returns.
+     * Only the last delta about each object is delivered, in the position of its last occurrence.
+     * Member values added and removed by the deltas it supersedes are merged into its <tt>membersAdded</tt> and
+     * <tt>membersRemoved</tt>, the last change about each member winning.
+     *
+     * @return <tt>false</tt> if the handler asked to stop.
+     */
+    private boolean handleDeltas(
+            final LdapContext ctx,
+            final ExecutorService executor,
+            final List<Item> pending,
+            final Map<String, Attributes> profiles,
+            final ObjectClass oclass,
+            final Map<String, Set<String>> attrsToGet,
+            final AckSyncResultsHandler handler) {
+
+        // the same object may show up several times in a batch, e.g. as member of several groups: read it once
+        batchProfiles.clear();
+
+        final List<SyncDelta> deltas = new ArrayList<SyncDelta>();
 
-                        for (int i = 0; i < rspCtls.length; i++) {
-                            if (rspCtls[i] instanceof DirSyncResponseControl) {
-                                DirSyncResponseControl dirSyncRspCtl = (DirSyncResponseControl) rspCtls[i];
-                                latestSyncToken = new SyncToken(dirSyncRspCtl.getCookie());
+        if (executor == null) {
+            for (Item item : pending) {
+                handleDelta(ctx, item, profiles, oclass, attrsToGet, new SyncResultsHandler() {
+
+                    @Override
+                    public boolean handle(final SyncDelta delta) {
+                        return deltas.add(delta);
+                    }
+                });
+            }
+        } else {
+            final List<Future<List<SyncDelta>>> futures = new ArrayList<Future<List<SyncDelta>>>(pending.size());
+            for (final Item item : pending) {
+                futures.add(executor.submit(new Callable<List<SyncDelta>>() {
+
+                    @Override
+                    public List<SyncDelta> call() throws NamingException {
+                        final List<SyncDelta> result = new ArrayList<SyncDelta>();
+
+                        boolean broken = false;
+                        final LdapContext pooled = conn.borrowContext();
+                        try {
+                            // request controls must not stick to the pooled context
+                            final LdapContext workerCtx = pooled.newInstance(null);
+                            try {
+                                handleDelta(workerCtx, item, profiles, oclass, attrsToGet, new SyncResultsHandler() {
+
+                                    @Override
+                                    public boolean handle(final SyncDelta delta) {
+                                        return result.add(delta);
+                                    }
+                                });
+                            } finally {
+                                workerCtx.close();
                             }
+                        } catch (NamingException e) {
+                            broken = ADConnection.isCommunicationFailure(e);
+                            throw e;
+                        } catch (RuntimeException e) {
+                            broken = ADConnection.isCommunicationFailure(e);
+                            throw e;
+                        } finally {
+                            conn.returnContext(pooled, broken);
                         }
 
-                        if (LOG.isOk()) {
-                            LOG.ok("Latest sync token set to {0}", latestSyncToken);
-                        }
+                        return result;
                     }
+                }));
+            }
+
+            try {
+                for (Future<List<SyncDelta>> future : futures) {
+                    deltas.addAll(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorException("Interrupted while handling deltas", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new ConnectorException(e.getCause());
+            } finally {
+                for (Future<List<SyncDelta>> future : futures) {
+                    future.cancel(false);
                 }
-            } catch (NamingException e) {
-                LOG.error(e, "While searching base context {0} with filter {1} and search controls {2}",
-                        baseContextDn, filter.toString(), searchCtls);
             }
         }
 
-        return result;
+        pending.clear();
+        batchProfiles.clear();
+
+        for (SyncDelta delta : coalesce(deltas)) {
+            if (!handler.handle(delta)) {
+                return false;
+            }
+        }
+
+        return handler.isProceed();
     }
 
-    public void sync(
-            final SyncToken token,
-            final SyncResultsHandler handler,
-            final OperationOptions options,
-            final ObjectClass oclass) {
+    /**
+     * Keep only the last delta about each object, in the position of its last occurrence.
+     *
+     * @param deltas deltas, in order.
+     * @return coalesced deltas, in order.
+     */
+    static Collection<SyncDelta> coalesce(final List<SyncDelta> deltas) {
+        final Map<String, SyncDelta> coalesced = new LinkedHashMap<String, SyncDelta>(deltas.size());
+
+        for (SyncDelta delta : deltas) {
+            final String key = delta.getObject() == null
+                    ? delta.getUid().getUidValue()
+                    : delta.getObject().getObjectClass().getObjectClassValue() + ":" + delta.getUid().getUidValue();
+
+            final SyncDelta previous = coalesced.remove(key);
+            coalesced.put(key, previous == null ? delta : mergeMemberships(previous, delta));
+        }
 
-        // -----------------------------------
-        // Create search control
-        // -----------------------------------
-        final SearchControls searchCtls = LdapInternalSearch.createDefaultSearchControls();
+        if (LOG.isOk() && coalesced.size() < deltas.size()) {
+            LOG.ok("{0} deltas coalesced into {1}", deltas.size(), coalesced.size());
+        }
 
-        searchCtls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        return coalesced.values();
+    }
 
-        searchCtls.setReturningAttributes(null);
-        // -----------------------------------
+    /**
+     * Member values added and removed are reported incrementally: unlike any other attribute, they are not superseded
+     * by a later delta about the same group, but merged into it.
+     *
+     * @param previous delta being superseded.
+     * @param delta superseding delta.
+     * @return superseding delta, also reporting the membership changes of the superseded one.
+     */
+    private static SyncDelta mergeMemberships(final SyncDelta previous, final SyncDelta delta) {
+        if (delta.getDeltaType() == SyncDeltaType.DELETE || previous.getObject() == null || delta.getObject() == null) {
+            return delta;
+        }
 
-        // -----------------------------------
-        // Get Synchronization Context
-        // -----------------------------------
-        final LdapContext ctx;
+        final org.identityconnectors.framework.common.objects.Attribute previousAdded =
+                previous.getObject().getAttributeByName(ADConnector.MEMBERS_ADDED_ATTR);
+        final org.identityconnectors.framework.common.objects.Attribute previousRemoved =
+                previous.getObject().getAttributeByName(ADConnector.MEMBERS_REMOVED_ATTR);
+        if (previousAdded == null && previousRemoved == null) {
+            return delta;
+        }
 
-        try {
-            if (token == null
-                    || token.getValue() == null
-                    || !(token.getValue() instanceof byte[])
-                    || ((byte[]) token.getValue()).length == 0) {
+        final List<Object> lastAdded = getValues(delta.getObject().getAttributeByName(ADConnector.MEMBERS_ADDED_ATTR));
+        final List<Object> lastRemoved =
+                getValues(delta.getObject().getAttributeByName(ADConnector.MEMBERS_REMOVED_ATTR));
 
-                if (LOG.isOk()) {
-                    LOG.ok("Synchronization with empty token.");
-                }
+        // the last change about each member wins
+        final Set<Object> added = new LinkedHashSet<Object>(getValues(previousAdded));
+        added.removeAll(lastRemoved);
+        added.addAll(lastAdded);
 
-                ctx = conn.getSyncContext(new Control[]{new DirSyncControl()});
+        final Set<Object> removed = new LinkedHashSet<Object>(getValues(previousRemoved));
+        removed.removeAll(lastAdded);
+        removed.addAll(lastRemoved);
 
-                if (((ADConfiguration) conn.getConfiguration()).isStartSyncFromToday()) {
-                    search(ctx, "(cn=__CONNID-NORES__)", searchCtls, true);
-                    return;
-                }
+        final ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+        builder.setObjectClass(delta.getObject().getObjectClass());
+        builder.addAttributes(delta.getObject().getAttributes());
+        builder.addAttribute(AttributeBuilder.build(ADConnector.MEMBERS_ADDED_ATTR, added));
+        builder.addAttribute(AttributeBuilder.build(ADConnector.MEMBERS_REMOVED_ATTR, removed));
 
-            } else {
-                if (LOG.isOk()) {
-                    LOG.ok("Synchronization with token.");
+        return new SyncDeltaBuilder(delta).setObject(builder.build()).build();
+    }
+
+    private static List<Object> getValues(final org.identityconnectors.framework.common.objects.Attribute attr) {
+        return attr == null || attr.getValue() == null ? new ArrayList<Object>() : attr.getValue();
+    }
+
+    private void handleDelta(
+            final LdapContext ctx,
+            final Item item,
+            final Map<String, Attributes> profiles,
+            final ObjectClass oclass,
+            final Map<String, Set<String>> attrsToGet,
+            final SyncResultsHandler handler) {
+
+        try {
+            final String guid =
+                    DirSyncUtils.getGuidAsString((byte[]) item.result.getAttributes().get("objectGUID").get());
+            Attributes profile = profiles.get(guid);
+
+            if (oclass.is(ObjectClass.ALL_NAME)) {
+                // a single change serves both object classes: read it once
+                if (profile == null) {
+                    ctx.setRequestControls(new Control[]{new DeletedControl()});
+                    profile = ctx.getAttributes("<GUID=" + guid + ">");
                 }
 
-                ctx = conn.getSyncContext(new Control[]{new DirSyncControl((byte[]) token.getValue())});
+                // groups report member changes as account deltas, besides their own group deltas
+                handleSyncUDelta(ctx, item.result, profile, attrsToGet.get(ObjectClass.ACCOUNT_NAME), handler);
+
+                if (profile.get("objectClass").contains("group")) {
+                    handleSyncGDelta(ctx, item.result, profile, attrsToGet.get(ObjectClass.GROUP_NAME), handler);
+                }
+            } else if (oclass.is(ObjectClass.ACCOUNT_NAME)) {
+                handleSyncUDelta(ctx, item.result, profile, attrsToGet.get(ObjectClass.ACCOUNT_NAME), handler);
+            } else {
+                handleSyncGDelta(ctx, item.result, profile, attrsToGet.get(ObjectClass.GROUP_NAME), handler);
             }
-        } catch (Exception e) {
-            throw new ConnectorException("Could not set DirSync request controls", e);
+        } catch (NamingException e) {
+            LOG.error(e, "SyncDelta handling for '{0}' failed", item.result.getName());
         }
-        // -----------------------------------
-
-        // -----------------------------------
-        // Create search filter
-        // -----------------------------------
-        final String filter = oclass == ObjectClass.ACCOUNT
-                ? // get user filter
-                DirSyncUtils.createDirSyncUFilter((ADConfiguration) conn.getConfiguration())
-                : // get group filter
-                DirSyncUtils.createDirSyncGFilter((ADConfiguration) conn.getConfiguration());
+    }
 
-        if (LOG.isOk()) {
-            LOG.ok("Search filter: " + filter);
+    /**
+     * Read the current profiles, deleted objects included, of the objects changed by the given DirSync results:
+     * one search is issued per base context, matching all the relevant objectGUID values.
+     * Objects not found this way, and groups whose membership changes are delivered incrementally, will be read one
+     * by one during delta handling.
+     *
+     * @param attrs attributes to read, as from <tt>getProfileAttributes()</tt>.
+     * @return profiles by objectGUID, as formatted by <tt>DirSyncUtils.getGuidAsString()</tt>.
+     */
+    private Map<String, Attributes> hydrate(
+            final LdapContext ctx, final List<Item> pending, final ObjectClass oclass, final String[] attrs) {
+
+        final Map<String, Attributes> profiles = new HashMap<String, Attributes>();
+
+        if (pending.size() < 2 || ((ADConfiguration) conn.getConfiguration()).getHydrationBatchSize() < 2) {
+            return profiles;
         }
-        // -----------------------------------
-
-        final String[] attrsToGetOption = options.getAttributesToGet();
-        final Set<String> attrsToGet = utils.getAttributesToGet(attrsToGetOption, oclass);
 
-        final Set<SearchResult> changes = search(ctx, filter, searchCtls, true);
+        final Map<String, StringBuilder> filters = new LinkedHashMap<String, StringBuilder>();
+        for (Item item : pending) {
+            if (oclass.is(ObjectClass.GROUP_NAME) && isIncrementalMembership(item.result)) {
+                // read without member values during delta handling
+                continue;
+            }
 
-        if (oclass.is(ObjectClass.ACCOUNT_NAME)) {
-            for (SearchResult sr : changes) {
-                try {
+            final javax.naming.directory.Attribute objectGUID = item.result.getAttributes().get("objectGUID");
 
-                    handleSyncUDelta(ctx, sr, attrsToGet, handler);
+            try {
+                if (objectGUID != null && objectGUID.get() instanceof byte[]) {
+                    StringBuilder filter = filters.get(item.baseDN);
+                    if (filter == null) {
+                        filter = new StringBuilder("(|");
+                        filters.put(item.baseDN, filter);
+                    }
 
-                } catch (NamingException e) {
-                    LOG.error(e, "SyncDelta handling for '{0}' failed", sr.getName());
+                    filter.append("(objectGUID=").
+                            append(DirSyncUtils.getGuidFilterValue((byte[]) objectGUID.get())).append(')');
                 }
+            } catch (NamingException e) {
+                LOG.ok(e, "Could not read objectGUID of {0}", item.result.getName());
             }
-        } else {
-            for (SearchResult sr : changes) {
-                try {
+        }
+
+        final SearchControls searchCtls = LdapInternalSearch.createDefaultSearchControls();
+        searchCtls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        searchCtls.setReturningAttributes(attrs);
+
+        for (Map.Entry<String, StringBuilder> filter : filters.entrySet()) {
+            try {
+                ctx.setRequestControls(new Control[]{new DeletedControl()});
 
-                    handleSyncGDelta(ctx, sr, attrsToGet, handler);
+                final NamingEnumeration<SearchResult> answer =
+                        ctx.search(filter.getKey(), filter.getValue().append(')').toString(), searchCtls);
+                try {
+                    while (answer.hasMoreElements()) {
+                        final Attributes profile = answer.nextElement().getAttributes();
 
-                } catch (NamingException e) {
-                    LOG.error(e, "SyncDelta handling for '{0}' failed", sr.getName());
+                        profiles.put(
+                                DirSyncUtils.getGuidAsString((byte[]) profile.get("objectGUID").get()), profile);
+                    }
+                } finally {
+                    answer.close();
                 }
+            } catch (NamingException e) {
+                LOG.ok(e, "Could not read changed objects below {0}: reading them one by one", filter.getKey());
             }
         }
-    }
 
-    public SyncToken getLatestSyncToken() {
-        return latestSyncToken;
+        if (LOG.isOk()) {
+            LOG.ok("Read {0} out of {1} changed objects in batch", profiles.size(), pending.size());
+        }
+
+        return profiles;
     }
 
+    /**
+     * Hand the deltas about the given changed entry as an account; not private, so that tests can replace it.
+     */
     @SuppressWarnings("unchecked")
-    private void handleSyncUDelta(
+    void handleSyncUDelta(
             final LdapContext ctx,
             final SearchResult result,
+            final Attributes hydrated,
             final Collection<String> attrsToGet,
             final SyncResultsHandler handler)
             throws NamingException {
@@ -262,7 +1464,7 @@ public class ADSyncStrategy {
         }
 
         // We need for this beacause DirSync can return an uncomplete profile.
-        profile = ctx.getAttributes("<GUID=" + guid + ">");
+        profile = hydrated == null ? ctx.getAttributes("<GUID=" + guid + ">") : hydrated;
 
         final Attribute objectClasses = profile.get("objectClass");
 
@@ -344,6 +1546,7 @@ public class ADSyncStrategy {
                         ctx,
                         ObjectClass.ACCOUNT,
                         result.getNameInNamespace(),
+                        profile,
                         DirSyncUtils.getUserFilter(conf),
                         handler,
                         conf,
@@ -356,9 +1559,39 @@ public class ADSyncStrategy {
         }
     }
 
-    private void handleSyncGDelta(
+    /**
+     * Stops handing deltas to the wrapped handler as soon as it refuses one.
+     */
+    private static class AckSyncResultsHandler implements SyncResultsHandler {
+
+        private final SyncResultsHandler handler;
+
+        private boolean proceed = true;
+
+        public AckSyncResultsHandler(final SyncResultsHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public boolean handle(final SyncDelta delta) {
+            if (proceed) {
+                proceed = handler.handle(delta);
+            }
+            return proceed;
+        }
+
+        public boolean isProceed() {
+            return proceed;
+        }
+    }
+
+    /**
+     * Hand the deltas about the given changed entry as a group; not private, so that tests can replace it.
+     */
+    void handleSyncGDelta(
             final LdapContext ctx,
             final SearchResult sr,
+            final Attributes hydrated,
             final Collection<String> attrsToGet,
             final SyncResultsHandler handler)
             throws NamingException {
@@ -398,14 +1631,23 @@ public class ADSyncStrategy {
             LOG.error(t, "Error retrieving isDeleted attribute");
         }
 
+        final ADConfiguration conf = (ADConfiguration) conn.getConfiguration();
+
+        final boolean incrementalMembership = !isDeleted && isIncrementalMembership(sr);
+
         // We need for this beacause DirSync can return an uncomplete profile.
-        profile = ctx.getAttributes("<GUID=" + guid + ">");
+        if (hydrated != null) {
+            profile = hydrated;
+        } else if (incrementalMembership) {
+            // member values are not needed
+            profile = ctx.getAttributes("<GUID=" + guid + ">", getMembershipDeltaAttributes(attrsToGet));
+        } else {
+            profile = ctx.getAttributes("<GUID=" + guid + ">");
+        }
 
         final Attribute objectClasses = profile.get("objectClass");
 
         if (objectClasses.contains("group")) {
-            final ADConfiguration conf = (ADConfiguration) conn.getConfiguration();
-
             if (LOG.isOk()) {
                 LOG.ok("Created/Updated/Deleted group {0}", sr.getNameInNamespace());
             }
@@ -433,11 +1675,16 @@ public class ADSyncStrategy {
 
                 String userDN = sr.getNameInNamespace();
 
-                handleEntry(ctx, ObjectClass.GROUP, userDN, conf.getGroupSearchFilter(), handler, conf, attrsToGet);
-
                 final javax.naming.directory.Attribute member11 = sr.getAttributes().get("member;range=1-1");
                 final javax.naming.directory.Attribute member00 = sr.getAttributes().get("member;range=0-0");
 
+                if (incrementalMembership) {
+                    handleMembershipDelta(ctx, userDN, profile, member11, member00, handler, conf, attrsToGet);
+                } else {
+                    handleEntry(ctx, ObjectClass.GROUP, userDN, profile, conf.getGroupSearchFilter(), handler, conf,
+                            attrsToGet);
+                }
+
                 ctx.setRequestControls(null);
 
                 if (member11 != null && !conf.isLoading()) {
@@ -483,7 +1730,8 @@ public class ADSyncStrategy {
             final String entryDN,
             final SyncDeltaType syncDeltaType,
             final Attributes profile,
-            final Collection<String> attrsToGet)
+            final Collection<String> attrsToGet,
+            final org.identityconnectors.framework.common.objects.Attribute... additionalAttrs)
             throws NamingException {
 
         final SyncDeltaBuilder sdb = new SyncDeltaBuilder();
@@ -516,13 +1764,114 @@ public class ADSyncStrategy {
         // Set Connector Object
         if (SyncDeltaType.DELETE == syncDeltaType) {
             sdb.setObject(utils.createDeletedObject(entryDN, uid, profile, oclass));
-        } else {
+        } else if (additionalAttrs.length == 0) {
             sdb.setObject(utils.createConnectorObject(entryDN, profile, attrsToGet, oclass));
+        } else {
+            final ConnectorObjectBuilder bld = new ConnectorObjectBuilder();
+            bld.setObjectClass(oclass);
+            bld.addAttribute(utils.createConnectorObject(entryDN, profile, attrsToGet, oclass).getAttributes());
+            bld.addAttribute(additionalAttrs);
+
+            sdb.setObject(bld.build());
         }
 
         return sdb.build();
     }
 
+    /**
+     * Whether the given DirSync result reports group member values added or removed, to be delivered as such
+     * rather than along with the whole member list.
+     */
+    private boolean isIncrementalMembership(final SearchResult result) {
+        return ((ADConfiguration) conn.getConfiguration()).isIncrementalMembership()
+                && (result.getAttributes().get("member;range=1-1") != null
+                || result.getAttributes().get("member;range=0-0") != null);
+    }
+
+    /**
+     * Attributes to be read for a group whose membership changes are delivered incrementally: the member values
+     * are not.
+     */
+    private String[] getMembershipDeltaAttributes(final Collection<String> attrsToGet) {
+        final Set<String> ldapAttrsToGet = utils.getLdapAttributesToGet(
+                withoutMember(attrsToGet), ObjectClass.GROUP);
+
+        ldapAttrsToGet.add("objectClass");
+        ldapAttrsToGet.add("objectGUID");
+        ldapAttrsToGet.add("isDeleted");
+        if (StringUtil.isNotBlank(conn.getConfiguration().getUidAttribute())) {
+            ldapAttrsToGet.add(conn.getConfiguration().getUidAttribute());
+        }
+
+        return ldapAttrsToGet.toArray(new String[ldapAttrsToGet.size()]);
+    }
+
+    private static Set<String> withoutMember(final Collection<String> attrsToGet) {
+        final Set<String> result = new HashSet<String>();
+
+        for (String attrName : attrsToGet) {
+            if (!"member".equalsIgnoreCase(attrName)) {
+                result.add(attrName);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Hand a delta for the given group, reporting the member values added and removed instead of the whole member
+     * list.
+     */
+    private void handleMembershipDelta(
+            final LdapContext ctx,
+            final String dn,
+            final Attributes profile,
+            final javax.naming.directory.Attribute member11,
+            final javax.naming.directory.Attribute member00,
+            final SyncResultsHandler handler,
+            final ADConfiguration conf,
+            final Collection<String> attrsToGet)
+            throws NamingException {
+
+        final Set<String> groupAttrsToGet = withoutMember(attrsToGet);
+
+        if (DirSyncUtils.verifyFilter(ctx, dn, conf.getGroupSearchFilter(), profile)) {
+            if (LOG.isOk()) {
+                LOG.ok("Entry {0} - membership update", dn);
+            }
+
+            handler.handle(getSyncDelta(
+                    ObjectClass.GROUP,
+                    dn,
+                    SyncDeltaType.CREATE_OR_UPDATE,
+                    profile,
+                    groupAttrsToGet,
+                    AttributeBuilder.build(ADConnector.MEMBERS_ADDED_ATTR, getValues(member11)),
+                    AttributeBuilder.build(ADConnector.MEMBERS_REMOVED_ATTR, getValues(member00))));
+        } else if (conf.isRetrieveDeletedGroup()) {
+            if (LOG.isOk()) {
+                LOG.ok("Entry {0} - delete", dn);
+            }
+
+            handler.handle(getSyncDelta(ObjectClass.GROUP, dn, SyncDeltaType.DELETE, profile, groupAttrsToGet));
+        }
+    }
+
+    private static List<Object> getValues(final javax.naming.directory.Attribute attr)
+            throws NamingException {
+
+        final List<Object> values = new ArrayList<Object>();
+
+        if (attr != null) {
+            final NamingEnumeration<?> en = attr.getAll();
+            while (en.hasMoreElements()) {
+                values.add(en.nextElement());
+            }
+        }
+
+        return values;
+    }
+
     private void handleInOutEntries(
             final LdapContext ctx,
             final ObjectClass oclass,
@@ -535,21 +1884,29 @@ public class ADSyncStrategy {
 
         while (dns.hasMoreElements()) {
             // for each new user "in" we must verify custom ldap filter
-            handleEntry(ctx, oclass, dns.next(), filter, handler, conf, attrsToGet);
+            handleEntry(ctx, oclass, dns.next(), null, filter, handler, conf, attrsToGet);
         }
     }
 
+    /**
+     * Hand a delta for the given entry: its profile is read unless given or already read for the current batch.
+     */
     private void handleEntry(
             final LdapContext ctx,
             final ObjectClass oclass,
             final String dn,
+            final Attributes entryProfile,
             final String filter,
             final SyncResultsHandler handler,
             final ADConfiguration conf,
             final Collection<String> attrsToGet)
             throws NamingException {
 
-        final Attributes profile = ctx.getAttributes(dn);
+        Attributes profile = entryProfile == null ? batchProfiles.get(dn.toLowerCase()) : entryProfile;
+        if (profile == null) {
+            profile = ctx.getAttributes(dn);
+        }
+        batchProfiles.put(dn.toLowerCase(), profile);
 
         final Attribute objectClasses = profile.get("objectClass");
 
@@ -561,7 +1918,7 @@ public class ADSyncStrategy {
 
         final SyncDeltaType deltaType;
 
-        if (DirSyncUtils.verifyFilter(ctx, dn, filter)) {
+        if (DirSyncUtils.verifyFilter(ctx, dn, filter, profile)) {
             if (LOG.isOk()) {
                 LOG.ok("Entry {0} - update", dn);
             }
@@ -589,4 +1946,41 @@ public class ADSyncStrategy {
                     attrsToGet));
         }
     }
+
+    /**
+     * Receives the changes read by DirSync searches and, once all the changes of a batch have been received, the
+     * cookie to resume from.
+     */
+    private interface DirSyncHandler extends SearchResultsHandler {
+
+        /**
+         * @return <tt>false</tt> to stop.
+         */
+        boolean batchDone(String baseDN, byte[] cookie);
+    }
+
+    /**
+     * Change, batch checkpoint or failure handed off by a worker; pending change.
+     */
+    private static class Item {
+
+        private static final Item END = new Item(null, null, null, null);
+
+        private final String baseDN;
+
+        private final SearchResult result;
+
+        private final byte[] cookie;
+
+        private final RuntimeException failure;
+
+        public Item(final String baseDN, final SearchResult result, final byte[] cookie,
+                final RuntimeException failure) {
+
+            this.baseDN = baseDN;
+            this.result = result;
+            this.cookie = cookie;
+            this.failure = failure;
+        }
+    }
 }
@@ -0,0 +1,256 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import org.connid.bundles.ad.ADConnection;
+import org.connid.bundles.ad.util.ChangeNotificationControl;
+import org.connid.bundles.ad.util.DeletedControl;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Keeps a change notification search open below each base context to synchronize, each on its own connection,
+ * and counts the changes notified by the server: DirSync rounds can then be run only when something has changed.
+ * <br/>
+ * Notifications are not guaranteed to be delivered: whenever a notification search fails - hence some change might
+ * have been missed - a notification is counted as well, and the search is established again after a while.
+ */
+public class ChangeNotifier {
+
+    private static final Log LOG = Log.getLog(ChangeNotifier.class);
+
+    /**
+     * Milliseconds to wait before establishing again a failed notification search.
+     */
+    private static final long RETRY_INTERVAL = 30000L;
+
+    /**
+     * Milliseconds to wait for further notifications once a waiting caller has been notified, so that a burst of
+     * changes triggers a single DirSync round.
+     */
+    private static final long COALESCE_INTERVAL = 1000L;
+
+    private final ADConnection conn;
+
+    private final long retryInterval;
+
+    private final long coalesceInterval;
+
+    private final List<Listener> listeners = new ArrayList<Listener>();
+
+    private long notifications = 0L;
+
+    private volatile boolean closed = false;
+
+    public ChangeNotifier(final ADConnection conn) {
+        this(conn, RETRY_INTERVAL, COALESCE_INTERVAL);
+    }
+
+    ChangeNotifier(final ADConnection conn, final long retryInterval, final long coalesceInterval) {
+        this.conn = conn;
+        this.retryInterval = retryInterval;
+        this.coalesceInterval = coalesceInterval;
+    }
+
+    /**
+     * Start listening for changes below each base context to synchronize.
+     */
+    public synchronized void start() {
+        for (String baseContextDn : conn.getConfiguration().getBaseContextsToSynchronize()) {
+            final Listener listener = new Listener(baseContextDn);
+            listeners.add(listener);
+            listener.start();
+        }
+    }
+
+    /**
+     * Stop listening for changes.
+     */
+    public void close() {
+        closed = true;
+
+        final List<Listener> toBeClosed;
+        synchronized (this) {
+            toBeClosed = new ArrayList<Listener>(listeners);
+            listeners.clear();
+            notifyAll();
+        }
+
+        for (Listener listener : toBeClosed) {
+            listener.abort();
+        }
+    }
+
+    /**
+     * Get the number of changes notified so far, waiting at most the given amount of milliseconds if none has
+     * been notified after the given number. When a notification arrives while waiting, further notifications are
+     * collected for a while before returning.
+     *
+     * @param seen number of notifications already taken into account.
+     * @param maxWait maximum amount of milliseconds to wait.
+     * @return number of changes notified so far.
+     */
+    public synchronized long awaitNotification(final long seen, final long maxWait) {
+        final long deadline = System.currentTimeMillis() + maxWait;
+
+        try {
+            boolean waited = false;
+
+            long remaining = deadline - System.currentTimeMillis();
+            while (notifications == seen && remaining > 0 && !closed) {
+                wait(remaining);
+                waited = true;
+
+                remaining = deadline - System.currentTimeMillis();
+            }
+
+            if (waited && notifications != seen) {
+                // each notification wakes this up: keep collecting until the interval is over
+                final long coalesceDeadline = System.currentTimeMillis() + coalesceInterval;
+
+                remaining = coalesceInterval;
+                while (remaining > 0 && !closed) {
+                    wait(remaining);
+
+                    remaining = coalesceDeadline - System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return notifications;
+    }
+
+    private synchronized void notified() {
+        notifications++;
+        notifyAll();
+    }
+
+    /**
+     * Keeps a change notification search open below a base context.
+     */
+    private class Listener extends Thread {
+
+        private final String baseContextDn;
+
+        private LdapContext ctx;
+
+        private NamingEnumeration<SearchResult> answer;
+
+        public Listener(final String baseContextDn) {
+            super("AD change notifications for " + baseContextDn);
+            setDaemon(true);
+
+            this.baseContextDn = baseContextDn;
+        }
+
+        @Override
+        public void run() {
+            final SearchControls searchCtls = new SearchControls();
+            searchCtls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+            searchCtls.setReturningAttributes(new String[]{"objectClass"});
+
+            while (!closed) {
+                try {
+                    synchronized (this) {
+                        if (closed) {
+                            return;
+                        }
+
+                        ctx = conn.createDedicatedContext();
+                        ctx.setRequestControls(new Control[]{new ChangeNotificationControl(), new DeletedControl()});
+                        answer = ctx.search(baseContextDn, "(objectClass=*)", searchCtls);
+                    }
+
+                    if (LOG.isOk()) {
+                        LOG.ok("Listening for changes below {0}", baseContextDn);
+                    }
+
+                    while (answer.hasMore()) {
+                        final SearchResult result = answer.next();
+
+                        if (LOG.isOk()) {
+                            LOG.ok("Change notified for {0}", result.getNameInNamespace());
+                        }
+
+                        notified();
+                    }
+                } catch (Exception e) {
+                    if (!closed) {
+                        LOG.warn(e, "Change notifications for {0} interrupted", baseContextDn);
+                    }
+                } finally {
+                    closeSearch();
+                }
+
+                if (!closed) {
+                    // changes might have been missed
+                    notified();
+
+                    try {
+                        Thread.sleep(retryInterval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Abandon the notification search, if any, and stop listening.
+         */
+        public synchronized void abort() {
+            interrupt();
+            closeSearch();
+        }
+
+        private synchronized void closeSearch() {
+            try {
+                if (answer != null) {
+                    answer.close();
+                }
+            } catch (NamingException e) {
+                LOG.ok(e, "Failure closing change notification search");
+            }
+
+            try {
+                if (ctx != null) {
+                    ctx.close();
+                }
+            } catch (NamingException e) {
+                LOG.ok(e, "Failure closing change notification context");
+            }
+
+            answer = null;
+            ctx = null;
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+
+/**
+ * Append-only journal, on local disk, of the progress of a synchronization: each checkpoint (sync token from which
+ * synchronization can be resumed) and each delta delivered since the last checkpoint are recorded, so that a
+ * synchronization interrupted - for example by a crash of the caller - can be resumed from the latest checkpoint,
+ * without delivering again the deltas already delivered.
+ * <br/>
+ * The sync token given by the caller is looked up among the checkpoints journaled: if found, synchronization is
+ * resumed from the latest one; otherwise, the journal is started over from the given token.
+ * <br/>
+ * Records are synced to disk at each checkpoint and every <tt>FSYNC_BATCH</tt> deltas; a record not completely
+ * written is ignored when reading the journal.
+ */
+public class CheckpointJournal {
+
+    private static final Log LOG = Log.getLog(CheckpointJournal.class);
+
+    private static final byte[] MAGIC = new byte[]{'C', 'N', 'C', 'J'};
+
+    private static final int VERSION = 1;
+
+    private static final byte CHECKPOINT = 1;
+
+    private static final byte DISPATCHED = 2;
+
+    private static final byte NULL_TOKEN = 0;
+
+    private static final byte BINARY_TOKEN = 1;
+
+    private static final byte STRING_TOKEN = 2;
+
+    /**
+     * Deltas recorded between two syncs to disk.
+     */
+    private static final int FSYNC_BATCH = 1000;
+
+    private final File file;
+
+    private RandomAccessFile raf;
+
+    private FileChannel channel;
+
+    /**
+     * Checkpoints journaled, serialized, oldest first.
+     */
+    private final List<byte[]> checkpoints = new ArrayList<byte[]>();
+
+    /**
+     * Deltas delivered since the latest checkpoint: hash of the delivered content, by object.
+     */
+    private final Map<String, Integer> dispatched = new HashMap<String, Integer>();
+
+    private int unsynced = 0;
+
+    public CheckpointJournal(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the journal for a synchronization from the given sync token.
+     *
+     * @param token sync token given by the caller, possibly <tt>null</tt>.
+     * @return sync token to synchronize from.
+     * @throws IOException if the journal could not be read or written.
+     */
+    public synchronized SyncToken begin(final SyncToken token) throws IOException {
+        final byte[] given = serialize(token);
+
+        if (file.exists()) {
+            read();
+        }
+
+        int from = -1;
+        for (int i = 0; i < checkpoints.size() && from == -1; i++) {
+            if (Arrays.equals(given, checkpoints.get(i))) {
+                from = i;
+            }
+        }
+
+        if (from == -1) {
+            checkpoints.clear();
+            checkpoints.add(given);
+            dispatched.clear();
+        } else {
+            // checkpoints older than the given token are not needed anymore
+            checkpoints.subList(0, from).clear();
+
+            if (LOG.isInfo()) {
+                LOG.info("Resuming from journal {0}: {1} checkpoints after the given token, {2} deltas delivered",
+                        file, checkpoints.size() - 1, dispatched.size());
+            }
+        }
+
+        write();
+
+        return deserialize(checkpoints.get(checkpoints.size() - 1));
+    }
+
+    /**
+     * Whether a delta with the given content has already been delivered since the latest checkpoint.
+     *
+     * @param key object key.
+     * @param hash hash of the delivered content.
+     * @return whether already delivered.
+     */
+    public synchronized boolean isDispatched(final String key, final int hash) {
+        final Integer found = dispatched.get(key);
+        return found != null && found.intValue() == hash;
+    }
+
+    /**
+     * Record a delta as delivered.
+     *
+     * @param key object key.
+     * @param hash hash of the delivered content.
+     * @throws IOException if the journal could not be written.
+     */
+    public synchronized void dispatched(final String key, final int hash) throws IOException {
+        dispatched.put(key, hash);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(key);
+        out.writeInt(hash);
+        out.flush();
+
+        append(DISPATCHED, bytes.toByteArray());
+
+        if (++unsynced >= FSYNC_BATCH) {
+            sync();
+        }
+    }
+
+    /**
+     * Record a checkpoint: deltas delivered so far won't be delivered again when resuming from it.
+     *
+     * @param token sync token.
+     * @throws IOException if the journal could not be written.
+     */
+    public synchronized void checkpoint(final SyncToken token) throws IOException {
+        final byte[] serialized = serialize(token);
+
+        checkpoints.add(serialized);
+        dispatched.clear();
+
+        append(CHECKPOINT, serialized);
+        sync();
+    }
+
+    /**
+     * Wrap the given handler so that deltas already delivered are skipped, and the others are recorded once
+     * delivered.
+     *
+     * @param handler handler to deliver deltas to.
+     * @return journaling handler.
+     */
+    public SyncResultsHandler track(final SyncResultsHandler handler) {
+        return new SyncResultsHandler() {
+
+            @Override
+            public boolean handle(final SyncDelta delta) {
+                final String key = getKey(delta);
+                final int hash = getHash(delta);
+
+                if (isDispatched(key, hash)) {
+                    if (LOG.isOk()) {
+                        LOG.ok("Skipping {0}: already delivered", key);
+                    }
+                    return true;
+                }
+
+                final boolean proceed = handler.handle(delta);
+
+                try {
+                    dispatched(key, hash);
+                } catch (IOException e) {
+                    throw new ConnectorException("While writing checkpoint journal " + file, e);
+                }
+
+                return proceed;
+            }
+        };
+    }
+
+    /**
+     * Sync to disk and close the journal.
+     *
+     * @throws IOException if the journal could not be written.
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            try {
+                sync();
+            } finally {
+                raf.close();
+                raf = null;
+                channel = null;
+            }
+        }
+    }
+
+    private static String getKey(final SyncDelta delta) {
+        return delta.getObjectClass() + ":" + delta.getUid().getUidValue();
+    }
+
+    /**
+     * Hash of the delivered content, independent of attribute and value order: a delta is delivered again if the
+     * object has changed since.
+     */
+    private static int getHash(final SyncDelta delta) {
+        int hash = delta.getDeltaType().name().hashCode();
+
+        if (delta.getObject() != null) {
+            for (Attribute attr : delta.getObject().getAttributes()) {
+                int attrHash = attr.getName().toLowerCase().hashCode();
+
+                if (attr.getValue() != null) {
+                    for (Object value : attr.getValue()) {
+                        attrHash += 31 * (value instanceof byte[]
+                                ? Arrays.hashCode((byte[]) value) : String.valueOf(value).hashCode());
+                    }
+                }
+
+                hash += attrHash;
+            }
+        }
+
+        return hash;
+    }
+
+    private void append(final byte type, final byte[] payload) throws IOException {
+        final ByteBuffer record = ByteBuffer.allocate(5 + payload.length);
+        record.put(type);
+        record.putInt(payload.length);
+        record.put(payload);
+        record.flip();
+
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+
+    private void sync() throws IOException {
+        channel.force(false);
+        unsynced = 0;
+    }
+
+    /**
+     * Read the records journaled: reading stops at the first incomplete record.
+     * The journal is small, and is read into the heap: a file still mapped could not be truncated on some platforms.
+     */
+    private void read() throws IOException {
+        checkpoints.clear();
+        dispatched.clear();
+
+        final RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            final ByteBuffer content = ByteBuffer.allocate((int) in.length());
+            while (content.hasRemaining() && in.getChannel().read(content) >= 0) {
+                // keep reading
+            }
+            content.flip();
+
+            final byte[] magic = new byte[MAGIC.length];
+            if (content.remaining() < MAGIC.length + 1) {
+                return;
+            }
+            content.get(magic);
+            if (!Arrays.equals(MAGIC, magic) || content.get() != VERSION) {
+                LOG.warn("{0} is not a checkpoint journal: ignoring", file);
+                return;
+            }
+
+            while (content.remaining() >= 5) {
+                final byte type = content.get();
+                final int length = content.getInt();
+                if (length < 0 || length > content.remaining()) {
+                    break;
+                }
+
+                final byte[] payload = new byte[length];
+                content.get(payload);
+
+                if (type == CHECKPOINT) {
+                    checkpoints.add(payload);
+                    dispatched.clear();
+                } else if (type == DISPATCHED) {
+                    final DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                    try {
+                        dispatched.put(record.readUTF(), record.readInt());
+                    } catch (EOFException e) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Start the journal over with the current state, then keep it open for appending.
+     */
+    private void write() throws IOException {
+        if (channel == null) {
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+
+        channel.truncate(0);
+        channel.position(0);
+
+        final ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1);
+        header.put(MAGIC);
+        header.put((byte) VERSION);
+        header.flip();
+        channel.write(header);
+
+        for (byte[] checkpoint : checkpoints) {
+            append(CHECKPOINT, checkpoint);
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Map.Entry<String, Integer> entry : dispatched.entrySet()) {
+            bytes.reset();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+            out.flush();
+
+            append(DISPATCHED, bytes.toByteArray());
+        }
+
+        sync();
+    }
+
+    private static byte[] serialize(final SyncToken token) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        if (token == null || token.getValue() == null) {
+            out.writeByte(NULL_TOKEN);
+        } else if (token.getValue() instanceof byte[]) {
+            out.writeByte(BINARY_TOKEN);
+            out.write((byte[]) token.getValue());
+        } else if (token.getValue() instanceof String) {
+            out.writeByte(STRING_TOKEN);
+            out.write(((String) token.getValue()).getBytes("UTF-8"));
+        } else {
+            throw new ConnectorException("Unsupported sync token value " + token.getValue().getClass().getName());
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static SyncToken deserialize(final byte[] serialized) throws IOException {
+        final byte[] value = Arrays.copyOfRange(serialized, 1, serialized.length);
+
+        switch (serialized[0]) {
+            case BINARY_TOKEN:
+                return new SyncToken(value);
+
+            case STRING_TOKEN:
+                return new SyncToken(new String(value, "UTF-8"));
+
+            default:
+                return null;
+        }
+    }
+}
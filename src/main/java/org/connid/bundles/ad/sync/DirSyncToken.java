@@ -0,0 +1,193 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.SyncToken;
+
+/**
+ * Sync token holding one DirSync cookie per synchronized base context, so that each base context can be
+ * synchronized - and resumed - independently of the others.
+ * <br/>
+ * Serialized as the <tt>byte[]</tt> value of a single <tt>SyncToken</tt>; plain DirSync cookies, as found in tokens
+ * issued before, are still accepted and used for every base context.
+ */
+public class DirSyncToken {
+
+    /**
+     * Distinguishes composite tokens from plain DirSync cookies, starting with "MSDS".
+     */
+    private static final byte[] MAGIC = new byte[]{'C', 'N', 'D', 'S'};
+
+    private static final int VERSION = 2;
+
+    private static final int INITIAL_LOAD_FLAG = 0x01;
+
+    /**
+     * Key of the cookie used for base contexts without a cookie of their own.
+     */
+    private static final String DEFAULT_KEY = "";
+
+    private final Map<String, byte[]> cookies = new LinkedHashMap<String, byte[]>();
+
+    private boolean initialLoad = false;
+
+    /**
+     * Read the given sync token, either composite or plain DirSync cookie.
+     *
+     * @param token sync token, possibly <tt>null</tt>.
+     * @return composite token, empty if no valid token has been given.
+     */
+    public static DirSyncToken getInstance(final SyncToken token) {
+        final DirSyncToken dirSyncToken = new DirSyncToken();
+
+        if (token == null || !(token.getValue() instanceof byte[]) || ((byte[]) token.getValue()).length == 0) {
+            return dirSyncToken;
+        }
+
+        final byte[] value = (byte[]) token.getValue();
+
+        if (value.length < MAGIC.length || !Arrays.equals(MAGIC, Arrays.copyOf(value, MAGIC.length))) {
+            dirSyncToken.cookies.put(DEFAULT_KEY, value);
+            return dirSyncToken;
+        }
+
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+            in.skipBytes(MAGIC.length);
+
+            final int version = in.readUnsignedByte();
+            if (version < 1 || version > VERSION) {
+                throw new ConnectorException("Unsupported DirSync token version " + version);
+            }
+
+            // version 1 tokens carry no flags
+            if (version > 1) {
+                dirSyncToken.initialLoad = (in.readUnsignedByte() & INITIAL_LOAD_FLAG) != 0;
+            }
+
+            final int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                final String key = in.readUTF();
+                final byte[] cookie = new byte[in.readInt()];
+                in.readFully(cookie);
+
+                dirSyncToken.cookies.put(key, cookie);
+            }
+        } catch (IOException e) {
+            throw new ConnectorException("Invalid DirSync token", e);
+        }
+
+        return dirSyncToken;
+    }
+
+    /**
+     * Whether no cookie is available, for any base context: a full synchronization is required.
+     *
+     * @return whether no cookie is available.
+     */
+    public synchronized boolean isEmpty() {
+        return cookies.isEmpty();
+    }
+
+    /**
+     * Whether the cookies have been captured before a fast initial load not yet completed: objects must be read
+     * again before resuming from them.
+     *
+     * @return whether a fast initial load is in progress.
+     */
+    public synchronized boolean isInitialLoad() {
+        return initialLoad;
+    }
+
+    public synchronized void setInitialLoad(final boolean initialLoad) {
+        this.initialLoad = initialLoad;
+    }
+
+    /**
+     * Get the cookie to resume synchronization of the given base context from.
+     *
+     * @param baseContextDn synchronized base context.
+     * @return DirSync cookie, empty if none is available.
+     */
+    public synchronized byte[] getCookie(final String baseContextDn) {
+        byte[] cookie = cookies.get(key(baseContextDn));
+        if (cookie == null) {
+            cookie = cookies.get(DEFAULT_KEY);
+        }
+
+        return cookie == null ? new byte[0] : cookie;
+    }
+
+    /**
+     * Record the cookie to resume synchronization of the given base context from.
+     *
+     * @param baseContextDn synchronized base context.
+     * @param cookie DirSync cookie.
+     */
+    public synchronized void setCookie(final String baseContextDn, final byte[] cookie) {
+        cookies.put(key(baseContextDn), cookie);
+    }
+
+    /**
+     * Serialize the cookies collected so far.
+     *
+     * @return sync token.
+     */
+    public synchronized SyncToken toSyncToken() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try {
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(initialLoad ? INITIAL_LOAD_FLAG : 0);
+
+            out.writeInt(cookies.size());
+            for (Map.Entry<String, byte[]> entry : cookies.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+
+            out.flush();
+        } catch (IOException e) {
+            // cannot happen when writing to memory
+            throw new ConnectorException("Could not serialize DirSync token", e);
+        }
+
+        return new SyncToken(bytes.toByteArray());
+    }
+
+    private static String key(final String baseContextDn) {
+        return baseContextDn.toLowerCase();
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.sync;
+
+import org.identityconnectors.framework.common.objects.SyncToken;
+
+/**
+ * Sync token of uSNChanged based synchronization: update sequence numbers are local to a domain controller, hence
+ * the token is bound to the invocationId of the domain controller which issued it.
+ * <br/>
+ * Serialized as the <tt>String</tt> value of a single <tt>SyncToken</tt>.
+ */
+public class USNSyncToken {
+
+    private static final String PREFIX = "USN:";
+
+    private final String invocationId;
+
+    private final long usn;
+
+    public USNSyncToken(final String invocationId, final long usn) {
+        this.invocationId = invocationId;
+        this.usn = usn;
+    }
+
+    /**
+     * Read the given sync token.
+     *
+     * @param token sync token, possibly <tt>null</tt>.
+     * @return uSNChanged sync token, or <tt>null</tt> if no such token has been given.
+     */
+    public static USNSyncToken getInstance(final SyncToken token) {
+        if (token == null || !(token.getValue() instanceof String)) {
+            return null;
+        }
+
+        final String value = (String) token.getValue();
+        final int separator = value.lastIndexOf(':');
+
+        if (!value.startsWith(PREFIX) || separator < PREFIX.length()) {
+            return null;
+        }
+
+        try {
+            return new USNSyncToken(
+                    value.substring(PREFIX.length(), separator), Long.parseLong(value.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return invocationId of the domain controller which issued this token.
+     */
+    public String getInvocationId() {
+        return invocationId;
+    }
+
+    /**
+     * @return lowest uSNChanged value not synchronized yet.
+     */
+    public long getUsn() {
+        return usn;
+    }
+
+    public SyncToken toSyncToken() {
+        return new SyncToken(PREFIX + invocationId + ":" + usn);
+    }
+
+    @Override
+    public String toString() {
+        return PREFIX + invocationId + ":" + usn;
+    }
+}
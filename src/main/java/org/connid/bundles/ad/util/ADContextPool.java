@@ -0,0 +1,393 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.util;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Bounded pool of LDAP contexts with borrow/release semantics.
+ * Idle contexts are validated before being handed out again, unless validated recently, and evicted once idle for
+ * too long - checked on each borrow and release, and periodically in background; contexts found broken by borrowers
+ * are to be invalidated rather than released.
+ */
+public class ADContextPool {
+
+    private static final Log LOG = Log.getLog(ADContextPool.class);
+
+    /**
+     * Contexts validated less than this amount of milliseconds ago are handed out without validation.
+     */
+    private static final long VALIDATION_INTERVAL = 30000L;
+
+    /**
+     * Minimum amount of milliseconds between background evictions.
+     */
+    private static final long MIN_EVICTION_INTERVAL = 100L;
+
+    /**
+     * Provides and validates the pooled contexts.
+     */
+    public interface ContextFactory {
+
+        LdapContext createContext() throws NamingException;
+
+        boolean validateContext(LdapContext ctx);
+    }
+
+    private static class PooledContext {
+
+        private final LdapContext ctx;
+
+        private long lastUsed;
+
+        /**
+         * Tracked apart from last use: a busy pool would otherwise never validate its contexts again.
+         */
+        private long lastValidated;
+
+        public PooledContext(final LdapContext ctx) {
+            this.ctx = ctx;
+            this.lastUsed = System.currentTimeMillis();
+            this.lastValidated = this.lastUsed;
+        }
+    }
+
+    private final ContextFactory factory;
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private final long maxWait;
+
+    private final long idleTimeout;
+
+    private final long validationInterval;
+
+    private final Semaphore permits;
+
+    /**
+     * Most recently released contexts first.
+     */
+    private final LinkedList<PooledContext> idle = new LinkedList<PooledContext>();
+
+    private final Map<LdapContext, PooledContext> borrowed = new IdentityHashMap<LdapContext, PooledContext>();
+
+    private volatile boolean closed = false;
+
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * Constructor.
+     *
+     * @param factory context factory.
+     * @param minSize number of idle contexts never evicted.
+     * @param maxSize maximum number of contexts borrowed at the same time.
+     * @param maxWait milliseconds to wait for a context to be available.
+     * @param idleTimeout milliseconds after which an idle context is evicted.
+     */
+    public ADContextPool(
+            final ContextFactory factory,
+            final int minSize,
+            final int maxSize,
+            final long maxWait,
+            final long idleTimeout) {
+
+        this(factory, minSize, maxSize, maxWait, idleTimeout, VALIDATION_INTERVAL);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param factory context factory.
+     * @param minSize number of idle contexts never evicted.
+     * @param maxSize maximum number of contexts borrowed at the same time.
+     * @param maxWait milliseconds to wait for a context to be available.
+     * @param idleTimeout milliseconds after which an idle context is evicted.
+     * @param validationInterval milliseconds after which a context is validated again before being handed out.
+     */
+    public ADContextPool(
+            final ContextFactory factory,
+            final int minSize,
+            final int maxSize,
+            final long maxWait,
+            final long idleTimeout,
+            final long validationInterval) {
+
+        this.factory = factory;
+        this.validationInterval = validationInterval;
+        this.maxSize = maxSize < 1 ? 1 : maxSize;
+        this.minSize = minSize < 0 ? 0 : Math.min(minSize, this.maxSize);
+        this.maxWait = maxWait;
+        this.idleTimeout = idleTimeout;
+        this.permits = new Semaphore(this.maxSize, true);
+
+        if (idleTimeout > 0) {
+            // idle contexts must be closed even with no further traffic, before the server drops them
+            evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "AD context pool evictor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+            final long interval = Math.max(idleTimeout / 2, MIN_EVICTION_INTERVAL);
+            evictor.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    evictIdle();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            evictor = null;
+        }
+    }
+
+    /**
+     * Creates contexts up to the minimum size, so that the first borrowers do not pay for connecting: on failure,
+     * contexts are created on demand instead.
+     */
+    public void prefill() {
+        while (!closed) {
+            synchronized (this) {
+                if (idle.size() + borrowed.size() >= minSize) {
+                    return;
+                }
+            }
+
+            final PooledContext pooled;
+            try {
+                pooled = new PooledContext(factory.createContext());
+            } catch (NamingException e) {
+                LOG.warn(e, "Could not prefill context pool");
+                return;
+            } catch (RuntimeException e) {
+                LOG.warn(e, "Could not prefill context pool");
+                return;
+            }
+
+            synchronized (this) {
+                idle.addLast(pooled);
+            }
+        }
+    }
+
+    public LdapContext borrow() throws NamingException {
+        if (closed) {
+            throw new ConnectorException("Context pool has been closed");
+        }
+
+        try {
+            if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                throw new ConnectorException("Timeout waiting for an available LDAP context");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectorException("Interrupted waiting for an available LDAP context", e);
+        }
+
+        boolean acquired = false;
+
+        try {
+            // contexts idle for too long are likely dropped by the server: never hand them out
+            evictIdle();
+
+            PooledContext pooled;
+
+            while ((pooled = pollIdle()) != null) {
+                final long now = System.currentTimeMillis();
+
+                if (now - pooled.lastValidated < validationInterval) {
+                    acquired = true;
+                    break;
+                }
+
+                if (factory.validateContext(pooled.ctx)) {
+                    pooled.lastValidated = now;
+                    acquired = true;
+                    break;
+                }
+
+                if (LOG.isOk()) {
+                    LOG.ok("Discarding stale pooled context");
+                }
+
+                quietClose(pooled.ctx);
+            }
+
+            if (pooled == null) {
+                pooled = new PooledContext(factory.createContext());
+                acquired = true;
+            }
+
+            synchronized (this) {
+                borrowed.put(pooled.ctx, pooled);
+            }
+
+            return pooled.ctx;
+        } finally {
+            if (!acquired) {
+                permits.release();
+            }
+        }
+    }
+
+    public void release(final LdapContext ctx) {
+        final PooledContext pooled;
+
+        synchronized (this) {
+            pooled = borrowed.remove(ctx);
+        }
+
+        if (pooled == null) {
+            LOG.warn("Released context was not borrowed from this pool");
+            return;
+        }
+
+        try {
+            if (closed) {
+                quietClose(pooled.ctx);
+            } else {
+                pooled.lastUsed = System.currentTimeMillis();
+
+                synchronized (this) {
+                    idle.addFirst(pooled);
+                }
+
+                evictIdle();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Removes a borrowed context from the pool, closing it: to be used when the context has been found broken.
+     *
+     * @param ctx borrowed context.
+     */
+    public void invalidate(final LdapContext ctx) {
+        final PooledContext pooled;
+
+        synchronized (this) {
+            pooled = borrowed.remove(ctx);
+        }
+
+        quietClose(ctx);
+
+        if (pooled != null) {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes contexts idle for longer than the configured timeout, retaining the minimum pool size.
+     */
+    public void evictIdle() {
+        final List<PooledContext> evicted = new ArrayList<PooledContext>();
+
+        synchronized (this) {
+            final long now = System.currentTimeMillis();
+
+            while (idle.size() > minSize && now - idle.getLast().lastUsed > idleTimeout) {
+                evicted.add(idle.removeLast());
+            }
+        }
+
+        for (PooledContext pooled : evicted) {
+            quietClose(pooled.ctx);
+        }
+
+        if (LOG.isOk() && !evicted.isEmpty()) {
+            LOG.ok("Evicted {0} idle contexts", evicted.size());
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized int getBorrowedCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * @return number of contexts that can still be borrowed without waiting.
+     */
+    public int getAvailableCount() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * Closes all idle contexts; borrowed contexts will be closed once released.
+     */
+    public void close() {
+        closed = true;
+
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+
+        final List<PooledContext> toBeClosed;
+
+        synchronized (this) {
+            toBeClosed = new ArrayList<PooledContext>(idle);
+            idle.clear();
+        }
+
+        for (PooledContext pooled : toBeClosed) {
+            quietClose(pooled.ctx);
+        }
+    }
+
+    private synchronized PooledContext pollIdle() {
+        return idle.poll();
+    }
+
+    private static void quietClose(final LdapContext ctx) {
+        try {
+            if (ctx != null) {
+                ctx.close();
+            }
+        } catch (NamingException e) {
+            LOG.warn(e, "Failure closing context");
+        }
+    }
+}
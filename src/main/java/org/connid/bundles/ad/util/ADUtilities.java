@@ -27,29 +27,42 @@ import static org.connid.bundles.ad.ADConnector.UF_ACCOUNTDISABLE;
 import static org.identityconnectors.common.CollectionUtil.newCaseInsensitiveSet;
 import static org.identityconnectors.common.CollectionUtil.newSet;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import javax.naming.InvalidNameException;
+import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
 import org.connid.bundles.ad.ADConfiguration;
 import org.connid.bundles.ad.ADConnection;
+import org.connid.bundles.ad.search.ADDefaultSearchStrategy;
+import org.connid.bundles.ad.search.ADSimplePagedSearchStrategy;
 import org.connid.bundles.ldap.LdapConnection;
 import org.connid.bundles.ldap.commons.GroupHelper;
 import org.connid.bundles.ldap.commons.LdapConstants;
 import org.connid.bundles.ldap.commons.LdapEntry;
 import org.connid.bundles.ldap.commons.LdapUtil;
 import org.connid.bundles.ldap.schema.LdapSchemaMapping;
+import org.connid.bundles.ldap.search.LdapInternalSearch;
+import org.connid.bundles.ldap.search.SearchResultsHandler;
 import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeInfo;
@@ -65,6 +78,15 @@ public class ADUtilities {
 
     private final Log LOG = Log.getLog(ADUtilities.class);
 
+    public static final String MEMBEROF = "memberOf";
+
+    /**
+     * Maximum number of entries whose groups are looked up with a single query.
+     */
+    public static final int GROUP_LOOKUP_BATCH_SIZE = 100;
+
+    private static final String RANGE = ";range=";
+
     private ADConnection connection;
 
     private GroupHelper groupHelper;
@@ -146,12 +168,17 @@ public class ADUtilities {
     public Set<String> getLdapAttributesToGet(final Set<String> attrsToGet, final ObjectClass oclass) {
         final Set<String> cleanAttrsToGet = newCaseInsensitiveSet();
         cleanAttrsToGet.addAll(attrsToGet);
-        cleanAttrsToGet.remove(LdapConstants.LDAP_GROUPS_NAME);
+        boolean ldapGroups = cleanAttrsToGet.remove(LdapConstants.LDAP_GROUPS_NAME);
 
         boolean posixGroups = cleanAttrsToGet.remove(LdapConstants.POSIX_GROUPS_NAME);
 
         final Set<String> result = connection.getSchemaMapping().getLdapAttributes(oclass, cleanAttrsToGet, true);
 
+        if (ldapGroups && isLdapGroupsFromMemberOf()) {
+            // ldapGroups will be resolved from the back-link attribute, returned by the same search
+            result.add(MEMBEROF);
+        }
+
         if (posixGroups) {
             result.add(GroupHelper.getPosixRefAttribute());
         }
@@ -176,6 +203,29 @@ public class ADUtilities {
             final ObjectClass oclass)
             throws NamingException {
 
+        return createConnectorObject(baseDN, profile, attrsToGet, oclass, null);
+    }
+
+    /**
+     * Create a connector object.
+     *
+     * @param baseDN entry DN.
+     * @param profile entry attributes.
+     * @param attrsToGet attributes to be returned.
+     * @param oclass object class.
+     * @param ldapGroups groups the entry is member of, if already known (e.g. via <tt>getLdapGroups(Collection)</tt>);
+     * <tt>null</tt> to have them resolved when needed.
+     * @return connector object.
+     * @throws NamingException in case of failure.
+     */
+    public ConnectorObject createConnectorObject(
+            final String baseDN,
+            final Attributes profile,
+            final Collection<String> attrsToGet,
+            final ObjectClass oclass,
+            final Set<String> ldapGroups)
+            throws NamingException {
+
         final LdapEntry entry = LdapEntry.create(baseDN, profile);
 
         final ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
@@ -189,8 +239,15 @@ public class ADUtilities {
             Attribute attribute = null;
 
             if (LdapConstants.isLdapGroups(attributeName)) {
-                final Set<String> ldapGroups = new HashSet<String>(groupHelper.getLdapGroups(entry.getDN().toString()));
-                attribute = AttributeBuilder.build(LdapConstants.LDAP_GROUPS_NAME, ldapGroups);
+                final Set<String> groups;
+                if (ldapGroups != null) {
+                    groups = ldapGroups;
+                } else if (isLdapGroupsFromMemberOf()) {
+                    groups = getLdapGroupsFromMemberOf(profile);
+                } else {
+                    groups = new HashSet<String>(groupHelper.getLdapGroups(entry.getDN().toString()));
+                }
+                attribute = AttributeBuilder.build(LdapConstants.LDAP_GROUPS_NAME, groups);
             } else if (LdapConstants.isPosixGroups(attributeName)) {
                 final Set<String> posixRefAttrs =
                         LdapUtil.getStringAttrValues(entry.getAttributes(), GroupHelper.getPosixRefAttribute());
@@ -237,6 +294,239 @@ public class ADUtilities {
         return builder.build();
     }
 
+    /**
+     * <tt>memberOf</tt> is the back-link of <tt>member</tt> only: with any other group member attribute configured,
+     * groups are searched for instead.
+     *
+     * @return whether ldapGroups are to be resolved from <tt>memberOf</tt>.
+     */
+    public boolean isLdapGroupsFromMemberOf() {
+        return ((ADConfiguration) connection.getConfiguration()).isLdapGroupsFromMemberOf()
+                && "member".equalsIgnoreCase(connection.getConfiguration().getGroupMemberAttribute());
+    }
+
+    /**
+     * Get the groups listed by the <tt>memberOf</tt> back-link attribute of the given entry, restricted to the
+     * configured base contexts just as a search for groups having the entry as member would do.
+     *
+     * @param profile entry attributes, including <tt>memberOf</tt> if not empty.
+     * @return group DNs.
+     * @throws NamingException in case of failure.
+     */
+    public Set<String> getLdapGroupsFromMemberOf(final Attributes profile)
+            throws NamingException {
+
+        final Set<String> result = new HashSet<String>();
+
+        final javax.naming.directory.Attribute memberOf = profile.get(MEMBEROF);
+        if (memberOf == null) {
+            return result;
+        }
+
+        final List<LdapName> baseContexts = new ArrayList<LdapName>();
+        for (String baseContext : connection.getConfiguration().getBaseContexts()) {
+            baseContexts.add(new LdapName(baseContext));
+        }
+
+        final NamingEnumeration<?> values = memberOf.getAll();
+        while (values.hasMoreElements()) {
+            final String groupDN = values.next().toString();
+            final LdapName groupName = new LdapName(groupDN);
+
+            for (LdapName baseContext : baseContexts) {
+                if (groupName.startsWith(baseContext)) {
+                    result.add(groupDN);
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the groups of several entries at once, with a single search for groups having any of the given entries as
+     * member: to be used in place of one <tt>GroupHelper.getLdapGroups()</tt> call per entry. The member values of
+     * large groups, returned by AD one range at a time, are then read once per group.
+     *
+     * @param entryDNs entry DNs (at most <tt>GROUP_LOOKUP_BATCH_SIZE</tt> is recommended).
+     * @return group DNs per entry DN (case insensitive); every given entry DN is mapped.
+     */
+    public Map<String, Set<String>> getLdapGroups(final Collection<String> entryDNs) {
+        final Map<String, Set<String>> result = new TreeMap<String, Set<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (String entryDN : entryDNs) {
+            result.put(entryDN, new HashSet<String>());
+        }
+
+        if (entryDNs.isEmpty()) {
+            return result;
+        }
+
+        final String memberAttr = connection.getConfiguration().getGroupMemberAttribute();
+
+        final StringBuilder filter = new StringBuilder("(|");
+        for (String entryDN : entryDNs) {
+            filter.append('(').append(memberAttr).append('=').append(escapeFilterValue(entryDN)).append(')');
+        }
+        filter.append(')');
+
+        final SearchControls controls = LdapInternalSearch.createDefaultSearchControls();
+        controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        controls.setReturningAttributes(new String[]{memberAttr});
+
+        // large groups, whose members are returned one range at a time, with the last range read
+        final Map<String, javax.naming.directory.Attribute> truncated =
+                new LinkedHashMap<String, javax.naming.directory.Attribute>();
+
+        new LdapInternalSearch(
+                connection,
+                filter.toString(),
+                Arrays.asList(connection.getConfiguration().getBaseContexts()),
+                connection.supportsControl(PagedResultsControl.OID)
+                ? new ADSimplePagedSearchStrategy(connection.getConfiguration().getBlockSize())
+                : new ADDefaultSearchStrategy(false),
+                controls).execute(new SearchResultsHandler() {
+
+            @Override
+            public boolean handle(final String baseDN, final SearchResult sr) throws NamingException {
+                final String groupDN = sr.getNameInNamespace();
+                final javax.naming.directory.Attribute members = getMemberAttribute(sr.getAttributes(), memberAttr);
+
+                if (members != null) {
+                    addMembers(groupDN, members, result);
+                }
+
+                if (members == null || isRangeTruncated(members)) {
+                    truncated.put(groupDN, members);
+                }
+
+                return true;
+            }
+        });
+
+        // once the search is over, each large group is read in full, once for the whole batch
+        for (Map.Entry<String, javax.naming.directory.Attribute> group : truncated.entrySet()) {
+            try {
+                addRangedMembers(
+                        connection.getInitialContext(), group.getKey(), group.getValue(), memberAttr, result);
+            } catch (NamingException e) {
+                throw new ConnectorException("While reading members of " + group.getKey(), e);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Add the given group to the groups of the given entries it has as members.
+     */
+    private static void addMembers(
+            final String groupDN,
+            final javax.naming.directory.Attribute members,
+            final Map<String, Set<String>> groupsByMember)
+            throws NamingException {
+
+        final NamingEnumeration<?> values = members.getAll();
+        while (values.hasMoreElements()) {
+            final Set<String> groups = groupsByMember.get(values.next().toString());
+            if (groups != null) {
+                groups.add(groupDN);
+            }
+        }
+    }
+
+    /**
+     * Read the member values of the given group following the given range, one range per request, adding the group
+     * to the groups of the given entries it has as members.
+     *
+     * @param ctx context to read with.
+     * @param groupDN group DN.
+     * @param lastRange range of member values already read, or <tt>null</tt> to read from the first one.
+     * @param memberAttr member attribute.
+     * @param groupsByMember groups by entry DN, to be updated.
+     */
+    static void addRangedMembers(
+            final LdapContext ctx,
+            final String groupDN,
+            final javax.naming.directory.Attribute lastRange,
+            final String memberAttr,
+            final Map<String, Set<String>> groupsByMember)
+            throws NamingException {
+
+        javax.naming.directory.Attribute range = lastRange;
+        while (range == null || isRangeTruncated(range)) {
+            final String id = range == null ? null : range.getID();
+            final int next = id == null ? 0 : Integer.parseInt(id.substring(id.lastIndexOf('-') + 1)) + 1;
+
+            range = getMemberAttribute(
+                    ctx.getAttributes(groupDN, new String[]{memberAttr + RANGE + next + "-*"}), memberAttr);
+            if (range == null) {
+                // no values past the last range
+                return;
+            }
+
+            addMembers(groupDN, range, groupsByMember);
+        }
+    }
+
+    /**
+     * Whether AD returned only a range of the values of the given member attribute, as it does for large groups.
+     */
+    private static boolean isRangeTruncated(final javax.naming.directory.Attribute members) {
+        final String id = members.getID();
+        return id.toLowerCase().contains(RANGE) && !id.endsWith("-*");
+    }
+
+    private static javax.naming.directory.Attribute getMemberAttribute(
+            final Attributes attrs, final String memberAttr)
+            throws NamingException {
+
+        final NamingEnumeration<? extends javax.naming.directory.Attribute> all = attrs.getAll();
+        while (all.hasMoreElements()) {
+            final javax.naming.directory.Attribute attr = all.next();
+            final String id = attr.getID();
+            if (id.equalsIgnoreCase(memberAttr) || id.toLowerCase().startsWith(memberAttr.toLowerCase() + RANGE)) {
+                return attr;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Escape a value to be used in a search filter, as per RFC 4515.
+     *
+     * @param value value to be escaped.
+     * @return escaped value.
+     */
+    public static String escapeFilterValue(final String value) {
+        final StringBuilder builder = new StringBuilder(value.length());
+
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '\\':
+                    builder.append("\\5c");
+                    break;
+                case '*':
+                    builder.append("\\2a");
+                    break;
+                case '(':
+                    builder.append("\\28");
+                    break;
+                case ')':
+                    builder.append("\\29");
+                    break;
+                case '\0':
+                    builder.append("\\00");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+
+        return builder.toString();
+    }
+
     public ConnectorObject createDeletedObject(
             final String baseDN,
             final Uid uid,
@@ -0,0 +1,50 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.util;
+
+import javax.naming.ldap.Control;
+
+/**
+ * LDAP_SERVER_NOTIFICATION_OID: makes a search stay open on the server, returning entries as soon as they change.
+ */
+public class ChangeNotificationControl implements Control {
+
+    private static final long serialVersionUID = 2848412953411271432L;
+
+    public static final String OID = "1.2.840.113556.1.4.528";
+
+    @Override
+    public byte[] getEncodedValue() {
+        return new byte[]{};
+    }
+
+    @Override
+    public String getID() {
+        return OID;
+    }
+
+    @Override
+    public boolean isCritical() {
+        return true;
+    }
+}
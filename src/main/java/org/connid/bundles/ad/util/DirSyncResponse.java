@@ -0,0 +1,95 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.util;
+
+import com.sun.jndi.ldap.BerDecoder;
+import java.io.IOException;
+import javax.naming.ldap.Control;
+
+/**
+ * Decoded DirSync response control value:
+ * <pre>
+ * SEQUENCE {
+ *     MoreResults INTEGER,
+ *     unused      INTEGER,
+ *     CookieServer OCTET STRING
+ * }
+ * </pre>
+ */
+public class DirSyncResponse {
+
+    private final boolean moreData;
+
+    private final byte[] cookie;
+
+    private DirSyncResponse(final boolean moreData, final byte[] cookie) {
+        this.moreData = moreData;
+        this.cookie = cookie;
+    }
+
+    /**
+     * Look for the DirSync response control among the given response controls.
+     *
+     * @param controls response controls.
+     * @return decoded DirSync response, or <tt>null</tt> if not found.
+     * @throws IOException if the control value cannot be decoded.
+     */
+    public static DirSyncResponse getInstance(final Control[] controls)
+            throws IOException {
+
+        if (controls != null) {
+            for (Control control : controls) {
+                if (DirSyncControl.OID.equals(control.getID())) {
+                    return decode(control.getEncodedValue());
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static DirSyncResponse decode(final byte[] value)
+            throws IOException {
+
+        final BerDecoder ber = new BerDecoder(value, 0, value.length);
+        ber.parseSeq(null);
+        final boolean moreData = ber.parseInt() != 0;
+        ber.parseInt();
+        final byte[] cookie = ber.parseOctetString(4, null); // Ber.ASN_OCTET_STR
+
+        return new DirSyncResponse(moreData, cookie);
+    }
+
+    /**
+     * Whether further changes are available: another DirSync search with the returned cookie will retrieve them.
+     *
+     * @return whether further changes are available.
+     */
+    public boolean isMoreData() {
+        return moreData;
+    }
+
+    public byte[] getCookie() {
+        return cookie;
+    }
+}
@@ -24,6 +24,7 @@ package org.connid.bundles.ad.util;
 
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
 import javax.naming.ldap.LdapContext;
 import org.connid.bundles.ad.ADConfiguration;
@@ -38,8 +39,6 @@ public class DirSyncUtils {
 
     public static String createDirSyncUFilter(final ADConfiguration conf) {
 
-        final String[] memberships = conf.getMemberships();
-
         final String isDeleted = String.valueOf(conf.isRetrieveDeletedUser()).toUpperCase();
 
         final StringBuilder filter = new StringBuilder();
@@ -48,14 +47,9 @@ public class DirSyncUtils {
 
         mfilter.append("(objectClass=group)");
 
-        if (memberships != null && memberships.length > 0) {
-            ufilter.append(conf.isMembershipsInOr() ? "(|" : "(&");
-
-            for (String group : memberships) {
-                ufilter.append("(memberOf=").append(group).append(")");
-            }
-
-            ufilter.append(")");
+        final String membershipsFilter = createMembershipsFilter(conf);
+        if (membershipsFilter != null) {
+            ufilter.append(membershipsFilter);
         }
 
         ufilter.insert(0, "(&(objectClass=user)").append(")");
@@ -66,6 +60,28 @@ public class DirSyncUtils {
         return filter.toString();
     }
 
+    /**
+     * Create the filter selecting users by configured group memberships.
+     *
+     * @param conf connector configuration.
+     * @return memberships filter, or <tt>null</tt> if no membership is configured.
+     */
+    public static String createMembershipsFilter(final ADConfiguration conf) {
+        final String[] memberships = conf.getMemberships();
+
+        if (memberships == null || memberships.length == 0) {
+            return null;
+        }
+
+        final StringBuilder filter = new StringBuilder(conf.isMembershipsInOr() ? "(|" : "(&");
+
+        for (String group : memberships) {
+            filter.append("(memberOf=").append(group).append(")");
+        }
+
+        return filter.append(")").toString();
+    }
+
     public static String createDirSyncGFilter(final ADConfiguration conf) {
 
         final StringBuilder filter = new StringBuilder();
@@ -115,6 +131,22 @@ public class DirSyncUtils {
                 ? "0" + Integer.toHexString(k) : Integer.toHexString(k);
     }
 
+    /**
+     * Escape the given binary objectGUID to be used as value in a search filter.
+     *
+     * @param guid binary objectGUID.
+     * @return filter value.
+     */
+    public static String getGuidFilterValue(final byte[] guid) {
+        final StringBuilder value = new StringBuilder(guid.length * 3);
+
+        for (int c = 0; c < guid.length; c++) {
+            value.append('\\').append(AddLeadingZero((int) guid[c] & 0xFF));
+        }
+
+        return value.toString();
+    }
+
     public static String getGuidAsString(byte[] GUID) {
         String strGUID = "";
         String byteGUID = "";
@@ -179,6 +211,45 @@ public class DirSyncUtils {
         return filter.toString();
     }
 
+    /**
+     * Verify filter against the given entry attributes; the server is asked only when the filter cannot be evaluated
+     * from these attributes, i.e. when any attribute it depends on is not among them.
+     *
+     * @param ctx ldap context.
+     * @param dn entry distinguished name.
+     * @param filter filter to be verified.
+     * @param profile entry attributes.
+     * @return TRUE if verified; FALSE otherwise.
+     */
+    public static boolean verifyFilter(
+            final LdapContext ctx,
+            final String dn,
+            final String filter,
+            final Attributes profile) {
+
+        if (StringUtil.isBlank(filter)) {
+            return true;
+        }
+
+        Boolean found = null;
+
+        try {
+            found = FilterEvaluator.getInstance(filter).evaluate(profile);
+        } catch (NamingException ex) {
+            LOG.ok(ex, "Could not evaluate {0} locally", filter);
+        }
+
+        if (found == null) {
+            if (LOG.isOk()) {
+                LOG.ok("Verifying {0} on server for {1}", filter, dn);
+            }
+
+            found = verifyFilter(ctx, dn, filter);
+        }
+
+        return found;
+    }
+
     public static boolean verifyFilter(
             final LdapContext ctx,
             final String dn,
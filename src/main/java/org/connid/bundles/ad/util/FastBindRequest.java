@@ -0,0 +1,67 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.util;
+
+import javax.naming.ldap.ExtendedRequest;
+import javax.naming.ldap.ExtendedResponse;
+
+/**
+ * LDAP_SERVER_FAST_BIND_OID extended operation: once issued on an unauthenticated connection, subsequent simple
+ * binds only verify credentials, without building a security token.
+ */
+public class FastBindRequest implements ExtendedRequest {
+
+    public static final String OID = "1.2.840.113556.1.4.1781";
+
+    private static final long serialVersionUID = 7306422425377049527L;
+
+    @Override
+    public String getID() {
+        return OID;
+    }
+
+    @Override
+    public byte[] getEncodedValue() {
+        return null;
+    }
+
+    @Override
+    public ExtendedResponse createExtendedResponse(
+            final String id, final byte[] berValue, final int offset, final int length) {
+
+        return new ExtendedResponse() {
+
+            private static final long serialVersionUID = -3232372460466283227L;
+
+            @Override
+            public String getID() {
+                return id;
+            }
+
+            @Override
+            public byte[] getEncodedValue() {
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,759 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.naming.InvalidNameException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.InvalidSearchFilterException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+
+/**
+ * In-process evaluation of RFC 4515 search filters against the attributes of an entry, as Active Directory would
+ * evaluate them: case-insensitive matching, presence, substrings, ordering, AND / OR / NOT and the AD bitwise
+ * matching rules (<tt>1.2.840.113556.1.4.803</tt> and <tt>1.2.840.113556.1.4.804</tt>).
+ *
+ * Evaluation answers <tt>null</tt> when the outcome cannot be decided from the given attributes: callers are
+ * expected to ask the server in that case. An attribute missing from the given ones is never taken as empty, even
+ * if all attributes were read: constructed, confidential and unreadable attributes are not returned either.
+ */
+public class FilterEvaluator {
+
+    public static final String MATCHING_RULE_BIT_AND = "1.2.840.113556.1.4.803";
+
+    public static final String MATCHING_RULE_BIT_OR = "1.2.840.113556.1.4.804";
+
+    private static final int CACHE_SIZE = 16;
+
+    private static final Map<String, FilterEvaluator> CACHE = new LinkedHashMap<String, FilterEvaluator>() {
+
+        private static final long serialVersionUID = -6219366285727566736L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, FilterEvaluator> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Get the evaluator for the given filter, parsing it only if not recently used.
+     *
+     * @param filter search filter.
+     * @return evaluator.
+     * @throws InvalidSearchFilterException if the filter cannot be parsed.
+     */
+    public static FilterEvaluator getInstance(final String filter)
+            throws InvalidSearchFilterException {
+
+        synchronized (CACHE) {
+            FilterEvaluator evaluator = CACHE.get(filter);
+            if (evaluator == null) {
+                evaluator = new FilterEvaluator(filter);
+                CACHE.put(filter, evaluator);
+            }
+            return evaluator;
+        }
+    }
+
+    private final Node root;
+
+    public FilterEvaluator(final String filter)
+            throws InvalidSearchFilterException {
+
+        final Parser parser = new Parser(filter);
+        root = parser.parseFilter();
+        parser.skipSpaces();
+        if (!parser.atEnd()) {
+            throw parser.error("Unexpected trailing characters");
+        }
+    }
+
+    /**
+     * Evaluate the filter.
+     *
+     * @param attrs entry attributes.
+     * @return whether the entry matches the filter, or <tt>null</tt> if undecidable from the given attributes.
+     * @throws NamingException if attribute values cannot be read.
+     */
+    public Boolean evaluate(final Attributes attrs)
+            throws NamingException {
+
+        return root.evaluate(attrs);
+    }
+
+    /**
+     * Names of the attributes the filter is evaluated against.
+     *
+     * @return attribute names, case-insensitive.
+     */
+    public Set<String> getAttributeNames() {
+        final Set<String> names = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        root.collectAttributeNames(names);
+        return names;
+    }
+
+    /**
+     * Values of the given attribute, or <tt>null</tt> if not given.
+     */
+    private static List<Object> getValues(final Attributes attrs, final String attrName)
+            throws NamingException {
+
+        final Attribute attr = attrs.get(attrName);
+
+        if (attr == null) {
+            return null;
+        }
+
+        final List<Object> values = new ArrayList<Object>();
+        final NamingEnumeration<?> all = attr.getAll();
+        while (all.hasMoreElements()) {
+            values.add(all.next());
+        }
+        return values;
+    }
+
+    private static String toString(final Object value) {
+        if (value instanceof byte[]) {
+            try {
+                return new String((byte[]) value, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return value.toString();
+    }
+
+    private static Long toLong(final String value) {
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isDN(final String value) {
+        return value.indexOf('=') > 0;
+    }
+
+    private static boolean equalsDN(final String value, final String assertion) {
+        try {
+            return new LdapName(value).equals(new LdapName(assertion));
+        } catch (InvalidNameException e) {
+            return false;
+        }
+    }
+
+    private abstract static class Node {
+
+        abstract Boolean evaluate(Attributes attrs)
+                throws NamingException;
+
+        abstract void collectAttributeNames(Set<String> names);
+    }
+
+    private static class And extends Node {
+
+        private final List<Node> children;
+
+        public And(final List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        void collectAttributeNames(final Set<String> names) {
+            for (Node node : children) {
+                node.collectAttributeNames(names);
+            }
+        }
+
+        @Override
+        Boolean evaluate(final Attributes attrs)
+                throws NamingException {
+
+            Boolean result = Boolean.TRUE;
+            for (Node child : children) {
+                final Boolean value = child.evaluate(attrs);
+                if (Boolean.FALSE.equals(value)) {
+                    return Boolean.FALSE;
+                }
+                if (value == null) {
+                    result = null;
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class Or extends Node {
+
+        private final List<Node> children;
+
+        public Or(final List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        void collectAttributeNames(final Set<String> names) {
+            for (Node node : children) {
+                node.collectAttributeNames(names);
+            }
+        }
+
+        @Override
+        Boolean evaluate(final Attributes attrs)
+                throws NamingException {
+
+            Boolean result = Boolean.FALSE;
+            for (Node child : children) {
+                final Boolean value = child.evaluate(attrs);
+                if (Boolean.TRUE.equals(value)) {
+                    return Boolean.TRUE;
+                }
+                if (value == null) {
+                    result = null;
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class Not extends Node {
+
+        private final Node child;
+
+        public Not(final Node child) {
+            this.child = child;
+        }
+
+        @Override
+        void collectAttributeNames(final Set<String> names) {
+            child.collectAttributeNames(names);
+        }
+
+        @Override
+        Boolean evaluate(final Attributes attrs)
+                throws NamingException {
+
+            final Boolean value = child.evaluate(attrs);
+            return value == null ? null : !value;
+        }
+    }
+
+    private static class Present extends Node {
+
+        private final String attrName;
+
+        public Present(final String attrName) {
+            this.attrName = attrName;
+        }
+
+        @Override
+        void collectAttributeNames(final Set<String> names) {
+            names.add(attrName);
+        }
+
+        @Override
+        Boolean evaluate(final Attributes attrs)
+                throws NamingException {
+
+            if ("objectClass".equalsIgnoreCase(attrName)) {
+                return Boolean.TRUE;
+            }
+
+            final List<Object> values = getValues(attrs, attrName);
+            return values == null ? null : !values.isEmpty();
+        }
+    }
+
+    /**
+     * Equality, approximate and ordering matches.
+     */
+    private static class Compare extends Node {
+
+        static final int EQUAL = 0;
+
+        static final int GREATER_OR_EQUAL = 1;
+
+        static final int LESS_OR_EQUAL = 2;
+
+        private final String attrName;
+
+        private final int type;
+
+        private final byte[] assertion;
+
+        private final String assertionString;
+
+        public Compare(final String attrName, final int type, final byte[] assertion) {
+            this.attrName = attrName;
+            this.type = type;
+            this.assertion = assertion;
+            this.assertionString = FilterEvaluator.toString(assertion);
+        }
+
+        @Override
+        void collectAttributeNames(final Set<String> names) {
+            names.add(attrName);
+        }
+
+        @Override
+        Boolean evaluate(final Attributes attrs)
+                throws NamingException {
+
+            final List<Object> values = getValues(attrs, attrName);
+            if (values == null) {
+                return null;
+            }
+
+            for (Object value : values) {
+                if (matches(value)) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+
+        private boolean matches(final Object value) {
+            if (type == EQUAL && value instanceof byte[]) {
+                return Arrays.equals((byte[]) value, assertion);
+            }
+
+            final String string = FilterEvaluator.toString(value);
+
+            if (type == EQUAL) {
+                if (string.equalsIgnoreCase(assertionString)) {
+                    return true;
+                }
+
+                if (isDN(string)) {
+                    // e.g. (objectCategory=person) against CN=Person,CN=Schema,CN=Configuration,...
+                    return isDN(assertionString)
+                            ? equalsDN(string, assertionString)
+                            : "objectCategory".equalsIgnoreCase(attrName) && equalsFirstRdnValue(string);
+                }
+
+                return false;
+            }
+
+            final Long number = toLong(string);
+            final Long assertionNumber = toLong(assertionString);
+
+            final int comparison = number != null && assertionNumber != null
+                    ? number.compareTo(assertionNumber)
+                    : string.compareToIgnoreCase(assertionString);
+
+            return type == GREATER_OR_EQUAL ? comparison >= 0 : comparison <= 0;
+        }
+
+        private boolean equalsFirstRdnValue(final String dn) {
+            try {
+                final List<Rdn> rdns = new LdapName(dn).getRdns();
+                return !rdns.isEmpty()
+                        && rdns.get(rdns.size() - 1).getValue().toString().equalsIgnoreCase(assertionString);
+            } catch (InvalidNameException e) {
+                return false;
+            }
+        }
+    }
+
+    private static class Substring extends Node {
+
+        private final String attrName;
+
+        private final String initial;
+
+        private final List<String> any;
+
+        private final String last;
+
+        public Substring(final String attrName, final String initial, final List<String> any, final String last) {
+            this.attrName = attrName;
+            this.initial = initial == null ? null : initial.toLowerCase();
+            this.any = new ArrayList<String>();
+            for (String part : any) {
+                this.any.add(part.toLowerCase());
+            }
+            this.last = last == null ? null : last.toLowerCase();
+        }
+
+        @Override
+        void collectAttributeNames(final Set<String> names) {
+            names.add(attrName);
+        }
+
+        @Override
+        Boolean evaluate(final Attributes attrs)
+                throws NamingException {
+
+            final List<Object> values = getValues(attrs, attrName);
+            if (values == null) {
+                return null;
+            }
+
+            for (Object value : values) {
+                if (matches(FilterEvaluator.toString(value).toLowerCase())) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+
+        private boolean matches(final String value) {
+            int pos = 0;
+
+            if (initial != null) {
+                if (!value.startsWith(initial)) {
+                    return false;
+                }
+                pos = initial.length();
+            }
+
+            for (String part : any) {
+                final int idx = value.indexOf(part, pos);
+                if (idx < 0) {
+                    return false;
+                }
+                pos = idx + part.length();
+            }
+
+            return last == null || (value.length() - last.length() >= pos && value.endsWith(last));
+        }
+    }
+
+    /**
+     * Extensible match: only AD bitwise matching rules can be evaluated.
+     */
+    private static class Extensible extends Node {
+
+        private final String attrName;
+
+        private final String rule;
+
+        private final String assertion;
+
+        public Extensible(final String attrName, final String rule, final String assertion) {
+            this.attrName = attrName;
+            this.rule = rule;
+            this.assertion = assertion;
+        }
+
+        @Override
+        void collectAttributeNames(final Set<String> names) {
+            if (attrName != null) {
+                names.add(attrName);
+            }
+        }
+
+        @Override
+        Boolean evaluate(final Attributes attrs)
+                throws NamingException {
+
+            final Long mask = toLong(assertion);
+
+            if (attrName == null || mask == null
+                    || !(MATCHING_RULE_BIT_AND.equals(rule) || MATCHING_RULE_BIT_OR.equals(rule))) {
+                // e.g. LDAP_MATCHING_RULE_IN_CHAIN
+                return null;
+            }
+
+            final List<Object> values = getValues(attrs, attrName);
+            if (values == null) {
+                return null;
+            }
+
+            for (Object value : values) {
+                final Long number = toLong(FilterEvaluator.toString(value));
+                if (number != null && (MATCHING_RULE_BIT_AND.equals(rule)
+                        ? (number & mask) == mask
+                        : (number & mask) != 0)) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+    }
+
+    /**
+     * Recursive descent parser for RFC 4515 string filters; as AD does, tolerates whitespace between components and
+     * redundant parentheses.
+     */
+    private static class Parser {
+
+        private final String filter;
+
+        private int pos = 0;
+
+        public Parser(final String filter) {
+            this.filter = filter == null ? "" : filter.trim();
+        }
+
+        boolean atEnd() {
+            return pos >= filter.length();
+        }
+
+        void skipSpaces() {
+            while (!atEnd() && filter.charAt(pos) == ' ') {
+                pos++;
+            }
+        }
+
+        InvalidSearchFilterException error(final String message) {
+            return new InvalidSearchFilterException(message + " at position " + pos + " of " + filter);
+        }
+
+        private void expect(final char c)
+                throws InvalidSearchFilterException {
+
+            skipSpaces();
+            if (atEnd() || filter.charAt(pos) != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        Node parseFilter()
+                throws InvalidSearchFilterException {
+
+            skipSpaces();
+
+            // a filter not enclosed in parentheses, e.g. "objectClass=user"
+            if (!atEnd() && filter.charAt(pos) != '(') {
+                return parseItem();
+            }
+
+            expect('(');
+            skipSpaces();
+
+            if (atEnd()) {
+                throw error("Unexpected end of filter");
+            }
+
+            final Node node;
+            switch (filter.charAt(pos)) {
+                case '&':
+                    pos++;
+                    node = new And(parseFilterList());
+                    break;
+
+                case '|':
+                    pos++;
+                    node = new Or(parseFilterList());
+                    break;
+
+                case '!':
+                    pos++;
+                    node = new Not(parseFilter());
+                    break;
+
+                case '(':
+                    // redundant parentheses
+                    node = parseFilter();
+                    break;
+
+                default:
+                    node = parseItem();
+            }
+
+            expect(')');
+            return node;
+        }
+
+        private List<Node> parseFilterList()
+                throws InvalidSearchFilterException {
+
+            final List<Node> children = new ArrayList<Node>();
+
+            skipSpaces();
+            while (!atEnd() && filter.charAt(pos) == '(') {
+                children.add(parseFilter());
+                skipSpaces();
+            }
+
+            if (children.isEmpty()) {
+                throw error("Empty filter list");
+            }
+
+            return children;
+        }
+
+        private Node parseItem()
+                throws InvalidSearchFilterException {
+
+            final int start = pos;
+            while (!atEnd() && "=~<>:()".indexOf(filter.charAt(pos)) < 0) {
+                pos++;
+            }
+            final String attrName = filter.substring(start, pos).trim();
+
+            if (atEnd()) {
+                throw error("Unexpected end of filter");
+            }
+
+            switch (filter.charAt(pos)) {
+                case '~':
+                    pos++;
+                    expect('=');
+                    return new Compare(attrName, Compare.EQUAL, unescape(readValue()));
+
+                case '>':
+                    pos++;
+                    expect('=');
+                    return new Compare(attrName, Compare.GREATER_OR_EQUAL, unescape(readValue()));
+
+                case '<':
+                    pos++;
+                    expect('=');
+                    return new Compare(attrName, Compare.LESS_OR_EQUAL, unescape(readValue()));
+
+                case ':':
+                    return parseExtensible(attrName);
+
+                case '=':
+                    pos++;
+                    return parseEqualityOrSubstring(attrName);
+
+                default:
+                    throw error("Invalid filter item");
+            }
+        }
+
+        private Node parseEqualityOrSubstring(final String attrName)
+                throws InvalidSearchFilterException {
+
+            if (attrName.length() == 0) {
+                throw error("Missing attribute description");
+            }
+
+            final String value = readValue();
+
+            if ("*".equals(value)) {
+                return new Present(attrName);
+            }
+
+            if (value.indexOf('*') < 0) {
+                return new Compare(attrName, Compare.EQUAL, unescape(value));
+            }
+
+            final String[] parts = value.split("\\*", -1);
+
+            final List<String> any = new ArrayList<String>();
+            for (int i = 1; i < parts.length - 1; i++) {
+                if (parts[i].length() > 0) {
+                    any.add(toString(unescape(parts[i])));
+                }
+            }
+
+            return new Substring(
+                    attrName,
+                    parts[0].length() == 0 ? null : toString(unescape(parts[0])),
+                    any,
+                    parts[parts.length - 1].length() == 0 ? null : toString(unescape(parts[parts.length - 1])));
+        }
+
+        private Node parseExtensible(final String attrName)
+                throws InvalidSearchFilterException {
+
+            // attr[:dn][:rule]:=value or [:dn]:rule:=value
+            final int end = filter.indexOf(":=", pos);
+            if (end < 0) {
+                throw error("Invalid extensible match");
+            }
+
+            String rule = null;
+            boolean dnAttributes = false;
+            for (String part : filter.substring(pos + 1, end).split(":")) {
+                if ("dn".equalsIgnoreCase(part)) {
+                    dnAttributes = true;
+                } else if (part.length() > 0) {
+                    rule = part;
+                }
+            }
+
+            pos = end + 2;
+            final String value = toString(unescape(readValue()));
+
+            return new Extensible(dnAttributes || attrName.length() == 0 ? null : attrName, rule, value);
+        }
+
+        private String readValue() {
+            final int start = pos;
+            while (!atEnd() && filter.charAt(pos) != ')') {
+                pos++;
+            }
+            return filter.substring(start, pos);
+        }
+
+        private byte[] unescape(final String value)
+                throws InvalidSearchFilterException {
+
+            try {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final StringBuilder plain = new StringBuilder();
+
+                for (int i = 0; i < value.length(); i++) {
+                    final char c = value.charAt(i);
+
+                    if (c == '\\') {
+                        if (i + 2 >= value.length()) {
+                            throw error("Invalid escape sequence");
+                        }
+
+                        final byte[] bytes = plain.toString().getBytes("UTF-8");
+                        out.write(bytes, 0, bytes.length);
+                        plain.setLength(0);
+
+                        out.write(Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                        i += 2;
+                    } else {
+                        plain.append(c);
+                    }
+                }
+
+                final byte[] bytes = plain.toString().getBytes("UTF-8");
+                out.write(bytes, 0, bytes.length);
+
+                return out.toByteArray();
+            } catch (NumberFormatException e) {
+                throw error("Invalid escape sequence");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static String toString(final byte[] value) {
+            return FilterEvaluator.toString(value);
+        }
+    }
+}
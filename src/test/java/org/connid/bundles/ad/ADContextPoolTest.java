@@ -0,0 +1,236 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import org.connid.bundles.ad.util.ADContextPool;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.Test;
+
+public class ADContextPoolTest {
+
+    private static class CountingFactory implements ADContextPool.ContextFactory {
+
+        private final AtomicInteger created = new AtomicInteger();
+
+        private final AtomicInteger closed = new AtomicInteger();
+
+        @Override
+        public LdapContext createContext() throws NamingException {
+            created.incrementAndGet();
+
+            return (LdapContext) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[]{LdapContext.class},
+                    new InvocationHandler() {
+
+                        @Override
+                        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                            if ("close".equals(method.getName())) {
+                                closed.incrementAndGet();
+                            }
+                            return null;
+                        }
+                    });
+        }
+
+        private final AtomicInteger validated = new AtomicInteger();
+
+        private volatile boolean valid = true;
+
+        @Override
+        public boolean validateContext(final LdapContext ctx) {
+            validated.incrementAndGet();
+            return valid;
+        }
+    }
+
+    @Test
+    public void reuse() throws NamingException {
+        final CountingFactory factory = new CountingFactory();
+        final ADContextPool pool = new ADContextPool(factory, 1, 2, 100L, 60000L);
+
+        final LdapContext first = pool.borrow();
+        pool.release(first);
+
+        final LdapContext second = pool.borrow();
+        assertSame(first, second);
+        assertEquals(1, factory.created.get());
+
+        pool.release(second);
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(0, pool.getBorrowedCount());
+
+        pool.close();
+        assertEquals(1, factory.closed.get());
+    }
+
+    @Test
+    public void maxSize() throws NamingException {
+        final CountingFactory factory = new CountingFactory();
+        final ADContextPool pool = new ADContextPool(factory, 0, 2, 50L, 60000L);
+        assertEquals(2, pool.getAvailableCount());
+
+        final LdapContext first = pool.borrow();
+        final LdapContext second = pool.borrow();
+        assertNotSame(first, second);
+        assertEquals(0, pool.getAvailableCount());
+
+        try {
+            pool.borrow();
+            fail("Pool exhausted: borrow should time out");
+        } catch (ConnectorException e) {
+            // expected
+        }
+
+        pool.invalidate(first);
+        assertEquals(1, factory.closed.get());
+
+        // invalidation released a permit
+        final LdapContext third = pool.borrow();
+        assertEquals(3, factory.created.get());
+
+        pool.release(second);
+        pool.release(third);
+        pool.close();
+    }
+
+    @Test
+    public void idleEviction() throws NamingException {
+        final CountingFactory factory = new CountingFactory();
+        final ADContextPool pool = new ADContextPool(factory, 1, 3, 100L, -1L);
+
+        final LdapContext first = pool.borrow();
+        final LdapContext second = pool.borrow();
+        final LdapContext third = pool.borrow();
+
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        // negative idle timeout: everything above min size is evicted straight away
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(2, factory.closed.get());
+
+        pool.close();
+    }
+
+    @Test
+    public void prefill() throws NamingException {
+        final CountingFactory factory = new CountingFactory();
+        final ADContextPool pool = new ADContextPool(factory, 2, 3, 100L, 60000L);
+
+        pool.prefill();
+        assertEquals(2, factory.created.get());
+        assertEquals(2, pool.getIdleCount());
+
+        // already at min size
+        pool.prefill();
+        assertEquals(2, factory.created.get());
+
+        // prefilled contexts are handed out without connecting
+        final LdapContext first = pool.borrow();
+        final LdapContext second = pool.borrow();
+        assertEquals(2, factory.created.get());
+        assertEquals(0, factory.validated.get());
+
+        pool.release(first);
+        pool.release(second);
+        pool.close();
+    }
+
+    @Test
+    public void evictionOnBorrow() throws NamingException, InterruptedException {
+        final CountingFactory factory = new CountingFactory();
+        final ADContextPool pool = new ADContextPool(factory, 0, 2, 100L, 100L);
+
+        final LdapContext first = pool.borrow();
+        pool.release(first);
+        assertEquals(1, pool.getIdleCount());
+
+        // idle for too long: closed rather than validated and handed out
+        Thread.sleep(150L);
+        final LdapContext second = pool.borrow();
+        assertNotSame(first, second);
+        assertEquals(0, factory.validated.get());
+        assertEquals(1, factory.closed.get());
+
+        pool.release(second);
+        pool.close();
+    }
+
+    @Test
+    public void backgroundEviction() throws NamingException, InterruptedException {
+        final CountingFactory factory = new CountingFactory();
+        final ADContextPool pool = new ADContextPool(factory, 1, 3, 100L, 200L);
+
+        final LdapContext first = pool.borrow();
+        final LdapContext second = pool.borrow();
+        final LdapContext third = pool.borrow();
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        assertEquals(3, pool.getIdleCount());
+
+        // no further traffic: contexts above min size are closed anyway once idle for too long
+        Thread.sleep(600L);
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(2, factory.closed.get());
+
+        pool.close();
+    }
+
+    @Test
+    public void revalidation() throws NamingException, InterruptedException {
+        final CountingFactory factory = new CountingFactory();
+        final ADContextPool pool = new ADContextPool(factory, 1, 2, 100L, 60000L, 50L);
+
+        final LdapContext first = pool.borrow();
+        pool.release(first);
+
+        // validated recently: handed out as is
+        assertSame(first, pool.borrow());
+        assertEquals(0, factory.validated.get());
+        pool.release(first);
+
+        // in use all the time, yet validated again once the interval elapsed
+        Thread.sleep(100L);
+        factory.valid = false;
+
+        final LdapContext second = pool.borrow();
+        assertNotSame(first, second);
+        assertEquals(1, factory.validated.get());
+        assertEquals(1, factory.closed.get());
+        assertEquals(2, factory.created.get());
+
+        pool.release(second);
+        pool.close();
+    }
+}
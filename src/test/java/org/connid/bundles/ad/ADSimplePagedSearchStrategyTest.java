@@ -0,0 +1,262 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import org.connid.bundles.ad.search.ADSimplePagedSearchStrategy;
+import org.connid.bundles.ldap.search.SearchResultsHandler;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.Test;
+
+public class ADSimplePagedSearchStrategyTest {
+
+    private static final int PAGE_SIZE = 2;
+
+    private static final int ENTRIES = 5;
+
+    /**
+     * Serves <tt>ENTRIES</tt> entries per base DN, <tt>PAGE_SIZE</tt> at a time: the cookie is the index of the
+     * next entry.
+     */
+    private static class PagingContext implements InvocationHandler {
+
+        private int requested = 0;
+
+        private int next = 0;
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Exception {
+            if ("newInstance".equals(method.getName())) {
+                return proxy;
+            }
+
+            if ("setRequestControls".equals(method.getName())) {
+                final byte[] value = ((Control[]) args[0])[0].getEncodedValue();
+                // SEQUENCE { INTEGER size, OCTET STRING cookie }: cookie is either empty or one byte long
+                requested = value[6] == 0 ? 0 : value[7];
+                return null;
+            }
+
+            if ("search".equals(method.getName())) {
+                final String baseDN = (String) args[0];
+
+                final List<SearchResult> page = new ArrayList<SearchResult>();
+                for (int i = requested; i < Math.min(requested + PAGE_SIZE, ENTRIES); i++) {
+                    page.add(new SearchResult("CN=" + i + "," + baseDN, null, new BasicAttributes()));
+                }
+
+                next = requested + page.size();
+                return new Enumeration(page.iterator());
+            }
+
+            if ("getResponseControls".equals(method.getName())) {
+                final byte[] cookie = next < ENTRIES ? new byte[]{(byte) next} : new byte[0];
+
+                final byte[] value = new byte[7 + cookie.length];
+                value[0] = 0x30;
+                value[1] = (byte) (5 + cookie.length);
+                value[2] = 0x02;
+                value[3] = 0x01;
+                value[4] = (byte) ENTRIES;
+                value[5] = 0x04;
+                value[6] = (byte) cookie.length;
+                System.arraycopy(cookie, 0, value, 7, cookie.length);
+
+                return new Control[]{new PagedResultsResponseControl(PagedResultsControl.OID, false, value)};
+            }
+
+            return null;
+        }
+    }
+
+    private static class Enumeration implements NamingEnumeration<SearchResult> {
+
+        private final Iterator<SearchResult> iterator;
+
+        public Enumeration(final Iterator<SearchResult> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public SearchResult next() {
+            return iterator.next();
+        }
+
+        @Override
+        public boolean hasMore() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public SearchResult nextElement() {
+            return iterator.next();
+        }
+    }
+
+    private static LdapContext newContext(final PagingContext paging) {
+        return (LdapContext) Proxy.newProxyInstance(
+                ADSimplePagedSearchStrategyTest.class.getClassLoader(),
+                new Class<?>[]{LdapContext.class},
+                paging);
+    }
+
+    private static List<String> search(final boolean pagePrefetch, final int stopAfter)
+            throws IOException, NamingException {
+
+        final List<String> found = new ArrayList<String>();
+
+        new ADSimplePagedSearchStrategy(PAGE_SIZE, 0, false, null, 1, pagePrefetch).doSearch(
+                newContext(new PagingContext()),
+                Arrays.asList("OU=a", "OU=b"),
+                "(objectClass=user)",
+                new SearchControls(),
+                new SearchResultsHandler() {
+
+                    @Override
+                    public boolean handle(final String baseDN, final SearchResult result) {
+                        found.add(result.getName());
+                        return found.size() < stopAfter;
+                    }
+                });
+
+        return found;
+    }
+
+    /**
+     * Connection whose pool has the given number of contexts available, none of which can actually be borrowed:
+     * e.g. taken by other threads in the meanwhile.
+     */
+    private static class ExhaustedConnection extends ADConnection {
+
+        private final int available;
+
+        private final List<String> borrowers = new ArrayList<String>();
+
+        public ExhaustedConnection(final int available) {
+            super(new ADConfiguration());
+            this.available = available;
+        }
+
+        @Override
+        public int getAvailableContexts() {
+            return available;
+        }
+
+        @Override
+        public LdapContext borrowContext() {
+            synchronized (borrowers) {
+                borrowers.add(Thread.currentThread().getName());
+            }
+            throw new ConnectorException("Timeout waiting for an available LDAP context");
+        }
+    }
+
+    private static List<String> search(final ADConnection conn) throws IOException, NamingException {
+        final List<String> found = new ArrayList<String>();
+
+        new ADSimplePagedSearchStrategy(PAGE_SIZE, 0, false, conn, 4, false).doSearch(
+                newContext(new PagingContext()),
+                Arrays.asList("OU=a", "OU=b", "OU=c"),
+                "(objectClass=user)",
+                new SearchControls(),
+                new SearchResultsHandler() {
+
+                    @Override
+                    public boolean handle(final String baseDN, final SearchResult result) {
+                        return found.add(result.getName());
+                    }
+                });
+
+        return found;
+    }
+
+    @Test
+    public void poolExhausted() throws IOException, NamingException {
+        final ExhaustedConnection conn = new ExhaustedConnection(3);
+
+        // workers failing to borrow a context report the failure instead of leaving the caller waiting
+        try {
+            search(conn);
+            fail("Failure borrowing contexts expected");
+        } catch (ConnectorException e) {
+            assertEquals("Timeout waiting for an available LDAP context", e.getMessage());
+        }
+        assertFalse(conn.borrowers.isEmpty());
+    }
+
+    @Test
+    public void noContextAvailable() throws IOException, NamingException {
+        final ExhaustedConnection conn = new ExhaustedConnection(1);
+
+        // no room for concurrent workers: base DNs are searched one after another by the calling thread
+        assertEquals(3 * ENTRIES, search(conn).size());
+        assertTrue(conn.borrowers.isEmpty());
+    }
+
+    @Test
+    public void sequential() throws IOException, NamingException {
+        final List<String> found = search(false, Integer.MAX_VALUE);
+
+        assertEquals(2 * ENTRIES, found.size());
+        assertEquals("CN=0,OU=a", found.get(0));
+        assertEquals("CN=4,OU=b", found.get(2 * ENTRIES - 1));
+    }
+
+    @Test
+    public void prefetch() throws IOException, NamingException {
+        assertEquals(search(false, Integer.MAX_VALUE), search(true, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void cancel() throws IOException, NamingException {
+        assertEquals(Arrays.asList("CN=0,OU=a", "CN=1,OU=a", "CN=2,OU=a"), search(false, 3));
+        assertEquals(Arrays.asList("CN=0,OU=a", "CN=1,OU=a", "CN=2,OU=a"), search(true, 3));
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import org.connid.bundles.ad.util.ADContextPool;
+import org.connid.bundles.ldap.LdapConnection.AuthenticationResultType;
+import org.identityconnectors.common.security.GuardedString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Authentication through the bind pool, against a local LDAP stand-in.
+ */
+public class BindPoolTest {
+
+    private static final String USER_DN = "CN=user,CN=Users,DC=example,DC=com";
+
+    private LdapStandIn server;
+
+    private ADConnection conn;
+
+    @Before
+    public void init() throws IOException {
+        server = new LdapStandIn(false);
+        server.start();
+
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setHost("localhost");
+        conf.setPort(server.getPort());
+        conf.setSsl(false);
+        conf.setUseBindPool(true);
+        conf.setBindPoolMaxSize(1);
+
+        conn = new ADConnection(conf);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        conn.close();
+        server.shutdown();
+    }
+
+    private AuthenticationResultType authenticate(final String password) {
+        return conn.authenticate(USER_DN, new GuardedString(password.toCharArray())).getType();
+    }
+
+    @Test
+    public void reuse() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(AuthenticationResultType.SUCCESS, authenticate("Password123"));
+        }
+
+        // one connection, re-bound each time
+        assertEquals(1, server.getConnections());
+        assertEquals(3, server.getBinds());
+
+        final ADContextPool pool = conn.getBindPool();
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(0, pool.getBorrowedCount());
+    }
+
+    @Test
+    public void invalidation() {
+        assertEquals(AuthenticationResultType.SUCCESS, authenticate("Password123"));
+        assertEquals(1, server.getConnections());
+
+        // a connection whose last bind failed is not handed out again
+        assertEquals(AuthenticationResultType.FAILED, authenticate("wrong"));
+        assertEquals(0, conn.getBindPool().getIdleCount());
+        assertEquals(0, conn.getBindPool().getBorrowedCount());
+
+        assertEquals(AuthenticationResultType.PASSWORD_EXPIRED, authenticate("expired"));
+        assertEquals(0, conn.getBindPool().getIdleCount());
+
+        assertEquals(AuthenticationResultType.SUCCESS, authenticate("Password123"));
+        assertEquals(3, server.getConnections());
+        assertEquals(1, conn.getBindPool().getIdleCount());
+    }
+
+    @Test
+    public void noPassword() {
+        assertEquals(AuthenticationResultType.FAILED, conn.authenticate(USER_DN, null).getType());
+
+        // rejected without even borrowing a connection
+        assertEquals(0, server.getConnections());
+    }
+
+    @Test
+    public void credentialsCleared() throws NamingException {
+        assertEquals(AuthenticationResultType.SUCCESS, authenticate("Password123"));
+
+        // the pooled connection does not keep the user password around
+        final ADContextPool pool = conn.getBindPool();
+        final LdapContext ctx = pool.borrow();
+        try {
+            assertNull(ctx.getEnvironment().get(Context.SECURITY_CREDENTIALS));
+        } finally {
+            pool.release(ctx);
+        }
+        assertEquals(1, server.getConnections());
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad;
+
+import static org.junit.Assert.*;
+
+import org.connid.bundles.ad.sync.DirSyncToken;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.junit.Test;
+
+public class DirSyncTokenTest {
+
+    private static final String DOMAIN_A = "DC=a,DC=example,DC=com";
+
+    private static final String DOMAIN_B = "DC=b,DC=example,DC=com";
+
+    @Test
+    public void empty() {
+        assertTrue(DirSyncToken.getInstance(null).isEmpty());
+        assertTrue(DirSyncToken.getInstance(new SyncToken(new byte[0])).isEmpty());
+        assertTrue(DirSyncToken.getInstance(new SyncToken("not a cookie")).isEmpty());
+
+        assertArrayEquals(new byte[0], DirSyncToken.getInstance(null).getCookie(DOMAIN_A));
+    }
+
+    @Test
+    public void plainCookie() {
+        final byte[] cookie = new byte[]{'M', 'S', 'D', 'S', 1, 2, 3};
+
+        final DirSyncToken token = DirSyncToken.getInstance(new SyncToken(cookie));
+        assertFalse(token.isEmpty());
+        assertArrayEquals(cookie, token.getCookie(DOMAIN_A));
+        assertArrayEquals(cookie, token.getCookie(DOMAIN_B));
+
+        // once advanced, a base context does not fall back to the plain cookie anymore
+        token.setCookie(DOMAIN_A, new byte[]{4});
+
+        final DirSyncToken read = DirSyncToken.getInstance(token.toSyncToken());
+        assertArrayEquals(new byte[]{4}, read.getCookie(DOMAIN_A));
+        assertArrayEquals(cookie, read.getCookie(DOMAIN_B));
+    }
+
+    @Test
+    public void perBaseContext() {
+        final DirSyncToken token = DirSyncToken.getInstance(null);
+        token.setCookie(DOMAIN_A, new byte[]{1, 2});
+        token.setCookie(DOMAIN_B, new byte[]{3});
+
+        final DirSyncToken read = DirSyncToken.getInstance(token.toSyncToken());
+        assertFalse(read.isEmpty());
+        assertArrayEquals(new byte[]{1, 2}, read.getCookie(DOMAIN_A));
+        assertArrayEquals(new byte[]{3}, read.getCookie(DOMAIN_B.toLowerCase()));
+        assertArrayEquals(new byte[0], read.getCookie("DC=c,DC=example,DC=com"));
+    }
+
+    @Test
+    public void initialLoad() {
+        final DirSyncToken token = DirSyncToken.getInstance(null);
+        token.setCookie(DOMAIN_A, new byte[]{1});
+        token.setInitialLoad(true);
+
+        final DirSyncToken read = DirSyncToken.getInstance(token.toSyncToken());
+        assertTrue(read.isInitialLoad());
+        assertArrayEquals(new byte[]{1}, read.getCookie(DOMAIN_A));
+
+        read.setInitialLoad(false);
+        assertFalse(DirSyncToken.getInstance(read.toSyncToken()).isInitialLoad());
+    }
+
+    @Test
+    public void version1() {
+        final byte[] v1 = new byte[]{'C', 'N', 'D', 'S', 1, 0, 0, 0, 1, 0, 1, 'a', 0, 0, 0, 1, 7};
+
+        final DirSyncToken read = DirSyncToken.getInstance(new SyncToken(v1));
+        assertFalse(read.isInitialLoad());
+        assertArrayEquals(new byte[]{7}, read.getCookie("A"));
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import org.connid.bundles.ldap.LdapConnection.AuthenticationResultType;
+import org.identityconnectors.common.security.GuardedString;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Fast bind authentication against a local LDAP stand-in, acknowledging the fast bind extended operation.
+ */
+public class FastBindTest {
+
+    private static final String USER_DN = "CN=user,CN=Users,DC=example,DC=com";
+
+    private static LdapStandIn server;
+
+    private static ADConnection conn;
+
+    @BeforeClass
+    public static void init() throws IOException {
+        server = new LdapStandIn(true);
+        server.start();
+
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setHost("localhost");
+        conf.setPort(server.getPort());
+        conf.setSsl(false);
+        conf.setFastBind(true);
+        conf.setBindPoolMaxSize(1);
+
+        conn = new ADConnection(conf);
+    }
+
+    @AfterClass
+    public static void cleanup() throws IOException {
+        conn.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void authenticate() {
+        assertEquals(AuthenticationResultType.SUCCESS,
+                conn.authenticate(USER_DN, new GuardedString("Password123".toCharArray())).getType());
+        assertEquals(AuthenticationResultType.SUCCESS,
+                conn.authenticate(USER_DN, new GuardedString("Password123".toCharArray())).getType());
+
+        // back-to-back binds on the same fast bind enabled connection
+        assertEquals(1, server.getConnections());
+        assertEquals(1, server.getFastBinds());
+
+        assertEquals(AuthenticationResultType.FAILED,
+                conn.authenticate(USER_DN, new GuardedString("wrong".toCharArray())).getType());
+        assertEquals(AuthenticationResultType.PASSWORD_EXPIRED,
+                conn.authenticate(USER_DN, new GuardedString("expired".toCharArray())).getType());
+
+        // every connection has fast bind enabled before being used
+        assertEquals(server.getConnections(), server.getFastBinds());
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Set;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.InvalidSearchFilterException;
+import org.connid.bundles.ad.util.DirSyncUtils;
+import org.connid.bundles.ad.util.FilterEvaluator;
+import org.junit.Test;
+
+public class FilterEvaluatorTest {
+
+    private static Attributes user() {
+        final Attributes attrs = new BasicAttributes(true);
+
+        final BasicAttribute objectClass = new BasicAttribute("objectClass");
+        objectClass.add("top");
+        objectClass.add("person");
+        objectClass.add("organizationalPerson");
+        objectClass.add("user");
+        attrs.put(objectClass);
+
+        attrs.put("objectCategory", "CN=Person,CN=Schema,CN=Configuration,DC=example,DC=com");
+        attrs.put("sAMAccountName", "JDoe");
+        attrs.put("cn", "John Doe");
+        attrs.put("userAccountControl", "514");
+        attrs.put("uSNChanged", "12345");
+
+        final BasicAttribute memberOf = new BasicAttribute("memberOf");
+        memberOf.add("CN=Staff,OU=Groups,DC=example,DC=com");
+        memberOf.add("CN=Admins (EU),OU=Groups,DC=example,DC=com");
+        attrs.put(memberOf);
+
+        return attrs;
+    }
+
+    private static Boolean evaluate(final String filter) throws NamingException {
+        return new FilterEvaluator(filter).evaluate(user());
+    }
+
+    @Test
+    public void equality() throws NamingException {
+        assertTrue(evaluate("(objectClass=User)"));
+        assertTrue(evaluate("(samaccountname=jdoe)"));
+        assertFalse(evaluate("(sAMAccountName=jsmith)"));
+        assertTrue(evaluate("objectClass=user"));
+        assertTrue(evaluate("(objectCategory=person)"));
+        assertTrue(evaluate("(memberOf=cn=staff, ou=groups, dc=example, dc=com)"));
+        assertTrue(evaluate("(memberOf=CN=Admins \\28EU\\29,OU=Groups,DC=example,DC=com)"));
+    }
+
+    @Test
+    public void presenceAndSubstring() throws NamingException {
+        assertTrue(evaluate("(cn=*)"));
+        assertTrue(evaluate("(cn=john*)"));
+        assertTrue(evaluate("(cn=*doe)"));
+        assertTrue(evaluate("(cn=j*n*oe)"));
+        assertFalse(evaluate("(cn=*smith*)"));
+        assertFalse(evaluate("(cn=john doe*e)"));
+    }
+
+    @Test
+    public void ordering() throws NamingException {
+        assertTrue(evaluate("(uSNChanged>=9999)"));
+        assertFalse(evaluate("(uSNChanged<=9999)"));
+    }
+
+    @Test
+    public void bitwise() throws NamingException {
+        // 514 = NORMAL_ACCOUNT | ACCOUNTDISABLE
+        assertTrue(evaluate("(userAccountControl:" + FilterEvaluator.MATCHING_RULE_BIT_AND + ":=2)"));
+        assertFalse(evaluate("(userAccountControl:" + FilterEvaluator.MATCHING_RULE_BIT_AND + ":=3)"));
+        assertTrue(evaluate("(userAccountControl:" + FilterEvaluator.MATCHING_RULE_BIT_OR + ":=3)"));
+        assertTrue(evaluate("(!(userAccountControl:" + FilterEvaluator.MATCHING_RULE_BIT_OR + ":=16))"));
+    }
+
+    @Test
+    public void booleans() throws NamingException {
+        assertTrue(evaluate("(&(objectClass=user)(|(sAMAccountName=x)(cn=John*))(! (cn=Jane*)))"));
+        assertFalse(evaluate("(&(objectClass=user)(!(cn=John*)))"));
+        assertTrue(evaluate("(|(&(isDeleted=FALSE)(objectClass=user))(objectClass=user))"));
+    }
+
+    @Test
+    public void undecidable() throws NamingException {
+        // attribute not available: possibly empty, but also possibly constructed, confidential or not readable
+        assertNull(evaluate("(mail=*)"));
+        assertNull(evaluate("(!(isDeleted=TRUE))"));
+        assertNull(evaluate("(msDS-ResultantPSO=*)"));
+        assertNull(evaluate("(canonicalName=*)"));
+
+        // decidable anyway
+        assertFalse(evaluate("(&(mail=*)(cn=nobody))"));
+        assertTrue(evaluate("(|(mail=*)(cn=John Doe))"));
+
+        // LDAP_MATCHING_RULE_IN_CHAIN
+        assertNull(evaluate("(memberOf:1.2.840.113556.1.4.1941:=CN=Staff,OU=Groups,DC=example,DC=com)"));
+    }
+
+    @Test
+    public void userFilter() throws NamingException {
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setMemberships("CN=Staff,OU=Groups,DC=example,DC=com");
+        conf.setAccountSearchFilter("(sAMAccountName=j*)");
+
+        // redundant parentheses, as built by DirSyncUtils
+        assertTrue(new FilterEvaluator(DirSyncUtils.getUserFilter(conf)).evaluate(user()));
+
+        conf.setAccountSearchFilter("(sAMAccountName=x*)");
+        assertFalse(new FilterEvaluator(DirSyncUtils.getUserFilter(conf)).evaluate(user()));
+    }
+
+    @Test
+    public void attributeNames() throws NamingException {
+        final Set<String> names = new FilterEvaluator("(&(objectClass=user)(!(cn=adm*))"
+                + "(|(mail=*)(userAccountControl:1.2.840.113556.1.4.803:=2)(:dn:2.5.13.5:=x)))").getAttributeNames();
+
+        assertEquals(4, names.size());
+        assertTrue(names.containsAll(Arrays.asList("objectclass", "cn", "mail", "userAccountControl")));
+    }
+
+    @Test(expected = InvalidSearchFilterException.class)
+    public void invalid() throws NamingException {
+        new FilterEvaluator("(&(objectClass=user)");
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad;
+
+import static org.junit.Assert.*;
+
+import java.util.Set;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import org.connid.bundles.ad.util.ADUtilities;
+import org.junit.Test;
+
+public class LdapGroupsFromMemberOfTest {
+
+    private static ADUtilities utils(final boolean fromMemberOf, final String groupMemberAttribute) {
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setUserBaseContexts("OU=people,DC=test");
+        conf.setGroupBaseContexts("OU=groups,DC=test");
+        conf.setLdapGroupsFromMemberOf(fromMemberOf);
+        conf.setGroupMemberAttribute(groupMemberAttribute);
+
+        return new ADUtilities(new ADConnection(conf));
+    }
+
+    @Test
+    public void fromMemberOf() throws NamingException {
+        final ADUtilities utils = utils(true, "member");
+        assertTrue(utils.isLdapGroupsFromMemberOf());
+
+        final BasicAttribute memberOf = new BasicAttribute(ADUtilities.MEMBEROF);
+        memberOf.add("CN=inside,OU=groups,DC=test");
+        memberOf.add("CN=outside,OU=other,DC=test");
+        final BasicAttributes profile = new BasicAttributes(true);
+        profile.put(memberOf);
+
+        // groups out of the base contexts would not be found by searching for groups either
+        final Set<String> groups = utils.getLdapGroupsFromMemberOf(profile);
+        assertEquals(1, groups.size());
+        assertTrue(groups.contains("CN=inside,OU=groups,DC=test"));
+
+        assertTrue(utils.getLdapGroupsFromMemberOf(new BasicAttributes(true)).isEmpty());
+    }
+
+    @Test
+    public void otherMemberAttribute() {
+        // memberOf reflects member only: groups are searched for by the configured attribute
+        assertFalse(utils(true, "uniqueMember").isLdapGroupsFromMemberOf());
+        assertTrue(utils(true, "MEMBER").isLdapGroupsFromMemberOf());
+    }
+
+    @Test
+    public void disabled() {
+        assertFalse(utils(false, "member").isLdapGroupsFromMemberOf());
+    }
+}
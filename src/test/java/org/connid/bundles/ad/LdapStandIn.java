@@ -0,0 +1,248 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.connid.bundles.ad.util.FastBindRequest;
+
+/**
+ * Minimal local LDAP stand-in: answers anonymous and simple binds, the fast bind extended operation and rootDSE
+ * searches. Simple binds succeed with password <tt>Password123</tt> - on fast bind enabled connections only, if so
+ * required - and fail as expired with password <tt>expired</tt>.
+ */
+class LdapStandIn extends Thread {
+
+    private final ServerSocket socket;
+
+    private final boolean fastBindRequired;
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final AtomicInteger fastBinds = new AtomicInteger();
+
+    private final AtomicInteger binds = new AtomicInteger();
+
+    public LdapStandIn(final boolean fastBindRequired) throws IOException {
+        super("LDAP stand-in");
+        this.fastBindRequired = fastBindRequired;
+        setDaemon(true);
+        socket = new ServerSocket(0);
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * @return number of connections accepted so far.
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @return number of fast bind extended operations acknowledged so far.
+     */
+    public int getFastBinds() {
+        return fastBinds.get();
+    }
+
+    /**
+     * @return number of non-anonymous simple binds answered so far.
+     */
+    public int getBinds() {
+        return binds.get();
+    }
+
+    public void shutdown() throws IOException {
+        socket.close();
+    }
+
+    @Override
+    public void run() {
+        while (!socket.isClosed()) {
+            try {
+                final Socket client = socket.accept();
+                connections.incrementAndGet();
+
+                new Thread() {
+
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                }.start();
+            } catch (IOException e) {
+                // server shut down
+            }
+        }
+    }
+
+    private void serve(final Socket client) {
+        try {
+            final InputStream in = client.getInputStream();
+            final OutputStream out = client.getOutputStream();
+
+            boolean fastBindEnabled = false;
+            byte[][] message;
+
+            while ((message = readMessage(in)) != null) {
+                final int[] pos = new int[]{0};
+                final byte[] msgId = readTlv(message[1], pos)[1];
+                final byte[][] op = readTlv(message[1], pos);
+
+                final int opTag = op[0][0] & 0xFF;
+
+                if (opTag == 0x60) {
+                    // bind request: version, name, simple credentials
+                    final int[] opPos = new int[]{0};
+                    readTlv(op[1], opPos);
+                    final String name = new String(readTlv(op[1], opPos)[1], "UTF-8");
+                    final String password = new String(readTlv(op[1], opPos)[1], "UTF-8");
+
+                    if (name.length() > 0) {
+                        binds.incrementAndGet();
+                    }
+
+                    if (name.length() == 0
+                            || ((fastBindEnabled || !fastBindRequired) && "Password123".equals(password))) {
+                        out.write(response(msgId, 0x61, 0, ""));
+                    } else if ("expired".equals(password)) {
+                        out.write(response(msgId, 0x61, 49, "80090308: LdapErr: DSID-0C09042F, "
+                                + "comment: AcceptSecurityContext error, data 532, v2580"));
+                    } else {
+                        out.write(response(msgId, 0x61, 49, "80090308: LdapErr: DSID-0C09042F, "
+                                + "comment: AcceptSecurityContext error, data 52e, v2580"));
+                    }
+                } else if (opTag == 0x77) {
+                    // extended request
+                    final String oid = new String(readTlv(op[1], new int[]{0})[1], "UTF-8");
+
+                    if (FastBindRequest.OID.equals(oid)) {
+                        fastBindEnabled = true;
+                        fastBinds.incrementAndGet();
+                        out.write(response(msgId, 0x78, 0, ""));
+                    } else {
+                        out.write(response(msgId, 0x78, 2, "unsupported"));
+                    }
+                } else if (opTag == 0x63) {
+                    // search: no entries
+                    out.write(response(msgId, 0x65, 0, ""));
+                } else if (opTag == 0x42) {
+                    // unbind
+                    break;
+                }
+
+                out.flush();
+            }
+
+            client.close();
+        } catch (IOException e) {
+            // connection closed by client
+        }
+    }
+
+    private static byte[] response(final byte[] msgId, final int opTag, final int resultCode, final String diag)
+            throws IOException {
+
+        final ByteArrayOutputStream op = new ByteArrayOutputStream();
+        op.write(tlv(0x0A, new byte[]{(byte) resultCode}));
+        op.write(tlv(0x04, new byte[0]));
+        op.write(tlv(0x04, diag.getBytes("UTF-8")));
+
+        final ByteArrayOutputStream message = new ByteArrayOutputStream();
+        message.write(tlv(0x02, msgId));
+        message.write(tlv(opTag, op.toByteArray()));
+
+        return tlv(0x30, message.toByteArray());
+    }
+
+    private static byte[] tlv(final int tag, final byte[] value) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+
+        if (value.length < 0x80) {
+            out.write(value.length);
+        } else {
+            out.write(0x82);
+            out.write(value.length >> 8);
+            out.write(value.length & 0xFF);
+        }
+
+        out.write(value, 0, value.length);
+        return out.toByteArray();
+    }
+
+    private static byte[][] readTlv(final byte[] buf, final int[] pos) {
+        final int tag = buf[pos[0]++] & 0xFF;
+
+        int length = buf[pos[0]++] & 0xFF;
+        if (length > 0x7F) {
+            final int octets = length & 0x7F;
+            length = 0;
+            for (int i = 0; i < octets; i++) {
+                length = (length << 8) | (buf[pos[0]++] & 0xFF);
+            }
+        }
+
+        final byte[] value = new byte[length];
+        System.arraycopy(buf, pos[0], value, 0, length);
+        pos[0] += length;
+
+        return new byte[][]{new byte[]{(byte) tag}, value};
+    }
+
+    private static byte[][] readMessage(final InputStream in) throws IOException {
+        final int tag = in.read();
+        if (tag < 0) {
+            return null;
+        }
+
+        int length = in.read();
+        if (length > 0x7F) {
+            final int octets = length & 0x7F;
+            length = 0;
+            for (int i = 0; i < octets; i++) {
+                length = (length << 8) | in.read();
+            }
+        }
+
+        final byte[] value = new byte[length];
+        int read = 0;
+        while (read < length) {
+            final int count = in.read(value, read, length - read);
+            if (count < 0) {
+                return null;
+            }
+            read += count;
+        }
+
+        return new byte[][]{new byte[]{(byte) tag}, value};
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad;
+
+import static org.junit.Assert.*;
+
+import org.connid.bundles.ad.search.PageSizeController;
+import org.junit.Test;
+
+public class PageSizeControllerTest {
+
+    @Test
+    public void fixed() {
+        final PageSizeController pager = new PageSizeController(100, 1000, false);
+
+        pager.pageDone(100, 1, 100);
+        assertEquals(100, pager.getPageSize());
+    }
+
+    @Test
+    public void grow() {
+        final PageSizeController pager = new PageSizeController(100, 1000, true);
+
+        // fast, small pages: doubles at each page, up to the server limit
+        pager.pageDone(100, 10, 100 * 1024);
+        assertEquals(200, pager.getPageSize());
+
+        for (int i = 0; i < 10; i++) {
+            pager.pageDone(pager.getPageSize(), 10, pager.getPageSize() * 1024L);
+        }
+        assertEquals(1000, pager.getPageSize());
+    }
+
+    @Test
+    public void shrink() {
+        final PageSizeController pager = new PageSizeController(1000, 1000, true);
+
+        // 100 KB per entry (e.g. thumbnailPhoto): about 40 entries fit the target page bytes
+        for (int i = 0; i < 10; i++) {
+            pager.pageDone(pager.getPageSize(), 10, pager.getPageSize() * 100 * 1024L);
+        }
+        assertEquals(40, pager.getPageSize());
+
+        // slow server: about 2 seconds per page
+        final PageSizeController slow = new PageSizeController(100, 1000, true);
+        slow.pageDone(100, 4000, 100);
+        assertEquals(50, slow.getPageSize());
+
+        for (int i = 0; i < 10; i++) {
+            slow.pageDone(slow.getPageSize(), slow.getPageSize() * 1000L, 100);
+        }
+        assertEquals(PageSizeController.MIN_PAGE_SIZE, slow.getPageSize());
+    }
+}
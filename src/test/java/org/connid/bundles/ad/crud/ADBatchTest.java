@@ -0,0 +1,145 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.crud;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.connid.bundles.ad.ADConfiguration;
+import org.connid.bundles.ad.ADConnection;
+import org.connid.bundles.ad.ADConnector;
+import org.connid.bundles.ad.crud.ADBatch.Operation;
+import org.connid.bundles.ad.crud.ADBatch.Result;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.junit.Test;
+
+public class ADBatchTest {
+
+    private static final int THREADS = 3;
+
+    /**
+     * Takes a while to create - the first two creations wait for each other - fails to update the given uid.
+     */
+    private static class SlowConnector extends ADConnector {
+
+        private final Uid failing;
+
+        private final AtomicInteger running = new AtomicInteger();
+
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+        private final AtomicInteger deleted = new AtomicInteger();
+
+        private final CountDownLatch together = new CountDownLatch(2);
+
+        public SlowConnector(final Uid failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public Uid create(final ObjectClass oclass, final Set<Attribute> attrs, final OperationOptions options) {
+            final int now = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+
+            try {
+                together.countDown();
+                together.await(5, TimeUnit.SECONDS);
+
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            running.decrementAndGet();
+            return new Uid("created");
+        }
+
+        @Override
+        public Uid update(
+                final ObjectClass oclass, final Uid uid, final Set<Attribute> attrs, final OperationOptions options) {
+
+            if (uid == failing) {
+                throw new ConnectorException("update failed");
+            }
+            return uid;
+        }
+
+        @Override
+        public void delete(final ObjectClass oclass, final Uid uid, final OperationOptions options) {
+            deleted.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void execute() {
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setBatchThreads(THREADS);
+
+        final Uid failing = new Uid("failing");
+        final Uid updated = new Uid("updated");
+        final Uid deleted = new Uid("deleted");
+        final SlowConnector connector = new SlowConnector(failing);
+
+        final List<Operation> operations = new ArrayList<Operation>();
+        for (int i = 0; i < 10; i++) {
+            operations.add(Operation.create(ObjectClass.ACCOUNT, Collections.<Attribute>emptySet(), null));
+        }
+        operations.add(Operation.update(ObjectClass.ACCOUNT, updated, Collections.<Attribute>emptySet(), null));
+        operations.add(Operation.update(ObjectClass.ACCOUNT, failing, Collections.<Attribute>emptySet(), null));
+        // operations about the same object are not supported within a batch: they could run in any order
+        operations.add(Operation.delete(ObjectClass.ACCOUNT, deleted, null));
+
+        final List<Result> results = new ADBatch(new ADConnection(conf), connector).execute(operations);
+
+        assertEquals(operations.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertSame(operations.get(i), results.get(i).getOperation());
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(results.get(i).isSuccess());
+            assertNotNull(results.get(i).getUid());
+        }
+
+        assertSame(updated, results.get(10).getUid());
+        assertFalse(results.get(11).isSuccess());
+        assertEquals("update failed", results.get(11).getFailure().getMessage());
+        assertTrue(results.get(12).isSuccess());
+        assertEquals(1, connector.deleted.get());
+
+        assertTrue(connector.maxRunning.get() > 1);
+        assertTrue(connector.maxRunning.get() <= THREADS);
+    }
+}
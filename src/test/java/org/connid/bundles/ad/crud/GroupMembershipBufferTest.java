@@ -0,0 +1,292 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.crud;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.LdapContext;
+import org.connid.bundles.ad.ADConfiguration;
+import org.connid.bundles.ad.ADConnection;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.junit.Test;
+
+public class GroupMembershipBufferTest {
+
+    private static final String GROUP = "CN=group,DC=test";
+
+    /**
+     * Records group modifies, failing the ones which involve <tt>failing</tt>.
+     */
+    private static class RecordingConnection extends ADConnection {
+
+        private final List<List<ModificationItem>> modifies = new ArrayList<List<ModificationItem>>();
+
+        private String failing;
+
+        private RuntimeException unavailable;
+
+        /**
+         * When set, the first modify waits for it to be counted down.
+         */
+        private CountDownLatch gate;
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        public RecordingConnection(final ADConfiguration config) {
+            super(config);
+        }
+
+        @Override
+        public LdapContext borrowContext() {
+            if (unavailable != null) {
+                throw unavailable;
+            }
+
+            return (LdapContext) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[]{LdapContext.class},
+                    new InvocationHandler() {
+
+                        @Override
+                        public Object invoke(final Object proxy, final Method method, final Object[] args)
+                                throws NamingException {
+
+                            if ("modifyAttributes".equals(method.getName())) {
+                                if (gate != null && entered.getCount() > 0) {
+                                    entered.countDown();
+                                    try {
+                                        gate.await();
+                                    } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                    }
+                                }
+
+                                final List<ModificationItem> items = Arrays.asList((ModificationItem[]) args[1]);
+                                synchronized (modifies) {
+                                    modifies.add(items);
+                                }
+
+                                for (ModificationItem item : items) {
+                                    if (failing != null && item.getAttribute().contains(failing)) {
+                                        throw new NamingException("cannot modify " + failing);
+                                    }
+                                }
+                            }
+                            return null;
+                        }
+                    });
+        }
+
+        @Override
+        public void returnContext(final LdapContext ctx, final boolean broken) {
+            // nothing to release
+        }
+
+        public int getModifyCount() {
+            synchronized (modifies) {
+                return modifies.size();
+            }
+        }
+    }
+
+    private static RecordingConnection connection(final int size, final long maxWait) {
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setMembershipBufferSize(size);
+        conf.setMembershipBufferMaxWait(maxWait);
+
+        return new RecordingConnection(conf);
+    }
+
+    @Test
+    public void sizeThreshold() throws InterruptedException {
+        final RecordingConnection conn = connection(3, 60000L);
+        final GroupMembershipBuffer buffer = new GroupMembershipBuffer(conn);
+
+        final GroupMembershipBuffer.Pending first = buffer.add("CN=user1,DC=test", Collections.singleton(GROUP));
+        buffer.add("CN=user2,DC=test", Collections.singleton(GROUP));
+        assertEquals(0, conn.getModifyCount());
+
+        // third change pending for the group: written right away, with a single modify
+        buffer.add("CN=user3,DC=test", Collections.singleton(GROUP));
+        assertEquals(1, conn.getModifyCount());
+        assertEquals(1, conn.modifies.get(0).size());
+        assertEquals(3, conn.modifies.get(0).get(0).getAttribute().size());
+
+        assertTrue(first.await().isEmpty());
+
+        buffer.close();
+    }
+
+    @Test
+    public void timeThreshold() throws InterruptedException {
+        final RecordingConnection conn = connection(100, 50L);
+        final GroupMembershipBuffer buffer = new GroupMembershipBuffer(conn);
+
+        final GroupMembershipBuffer.Pending added = buffer.add("CN=user1,DC=test", Collections.singleton(GROUP));
+        final GroupMembershipBuffer.Pending removed = buffer.remove("CN=user2,DC=test", Collections.singleton(GROUP));
+        assertEquals(0, conn.getModifyCount());
+
+        // written by the scheduler once max wait elapsed, additions and removals together
+        assertTrue(added.await().isEmpty());
+        assertTrue(removed.await().isEmpty());
+        assertEquals(1, conn.getModifyCount());
+        assertEquals(2, conn.modifies.get(0).size());
+
+        buffer.close();
+    }
+
+    @Test
+    public void oneAtATimeFallback() throws InterruptedException {
+        final RecordingConnection conn = connection(3, 60000L);
+        conn.failing = "CN=bad,DC=test";
+        final GroupMembershipBuffer buffer = new GroupMembershipBuffer(conn);
+
+        final GroupMembershipBuffer.Pending good1 = buffer.add("CN=good1,DC=test", Collections.singleton(GROUP));
+        final GroupMembershipBuffer.Pending bad = buffer.add("CN=bad,DC=test", Collections.singleton(GROUP));
+        final GroupMembershipBuffer.Pending good2 = buffer.add("CN=good2,DC=test", Collections.singleton(GROUP));
+
+        // failed bulk modify, then one modify per member
+        assertEquals(4, conn.getModifyCount());
+        for (int i = 1; i < 4; i++) {
+            assertEquals(1, conn.modifies.get(i).get(0).getAttribute().size());
+        }
+
+        // failure reported only to the operation which requested the failing change
+        assertTrue(good1.await().isEmpty());
+        assertTrue(good2.await().isEmpty());
+
+        final Map<String, NamingException> failures = bad.await();
+        assertEquals(1, failures.size());
+        assertTrue(failures.containsKey(GROUP));
+
+        good1.check();
+        try {
+            bad.check();
+            fail("Membership of CN=bad,DC=test should have failed");
+        } catch (ConnectorException e) {
+            assertSame(failures.get(GROUP), e.getCause());
+        }
+
+        buffer.close();
+    }
+
+    @Test
+    public void perGroupFailures() throws InterruptedException {
+        final RecordingConnection conn = connection(100, 60000L);
+        conn.failing = "CN=bad,DC=test";
+        final GroupMembershipBuffer buffer = new GroupMembershipBuffer(conn);
+
+        final GroupMembershipBuffer.Pending bad = buffer.add(
+                "CN=bad,DC=test", Arrays.asList(GROUP, "CN=other,DC=test"));
+        final GroupMembershipBuffer.Pending good = buffer.add("CN=good,DC=test", Arrays.asList(GROUP));
+
+        buffer.flush();
+
+        assertTrue(good.await().isEmpty());
+        assertEquals(2, bad.await().size());
+
+        buffer.close();
+    }
+
+    @Test
+    public void flushesDoNotOverlap() throws InterruptedException {
+        final RecordingConnection conn = connection(100, 60000L);
+        conn.gate = new CountDownLatch(1);
+        final GroupMembershipBuffer buffer = new GroupMembershipBuffer(conn);
+
+        buffer.add("CN=user1,DC=test", Collections.singleton(GROUP));
+
+        final Thread first = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                buffer.flush();
+            }
+        });
+        first.start();
+        assertTrue(conn.entered.await(5, TimeUnit.SECONDS));
+
+        // requested after the first flush took its changes: must be written after them
+        buffer.remove("CN=user1,DC=test", Collections.singleton(GROUP));
+        final Thread second = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                buffer.flush();
+            }
+        });
+        second.start();
+
+        second.join(200L);
+        assertTrue(second.isAlive());
+        assertEquals(0, conn.getModifyCount());
+
+        conn.gate.countDown();
+        first.join(5000L);
+        second.join(5000L);
+
+        assertEquals(2, conn.getModifyCount());
+        assertEquals(DirContext.ADD_ATTRIBUTE, conn.modifies.get(0).get(0).getModificationOp());
+        assertEquals(DirContext.REMOVE_ATTRIBUTE, conn.modifies.get(1).get(0).getModificationOp());
+
+        buffer.close();
+    }
+
+    @Test
+    public void unexpectedFailure() throws InterruptedException {
+        final RecordingConnection conn = connection(100, 60000L);
+        conn.unavailable = new ConnectorException("no connection");
+        final GroupMembershipBuffer buffer = new GroupMembershipBuffer(conn);
+
+        final GroupMembershipBuffer.Pending pending = buffer.add("CN=user1,DC=test", Collections.singleton(GROUP));
+
+        try {
+            buffer.flush();
+            fail("Flush should have failed");
+        } catch (ConnectorException e) {
+            assertSame(conn.unavailable, e);
+        }
+
+        // changes are not silently dropped: the requester is told, rather than left waiting
+        final Map<String, NamingException> failures = pending.await();
+        assertEquals(1, failures.size());
+        assertSame(conn.unavailable, failures.get(GROUP).getRootCause());
+
+        conn.unavailable = null;
+        buffer.close();
+        assertEquals(0, conn.getModifyCount());
+    }
+}
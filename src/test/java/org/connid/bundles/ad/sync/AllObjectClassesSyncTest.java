@@ -0,0 +1,131 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.sync;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AllObjectClassesSyncTest {
+
+    private static final OperationOptions OPTIONS =
+            new OperationOptionsBuilder().setAttributesToGet("__NAME__").build();
+
+    private USNDomainController dc;
+
+    private RecordingSyncStrategy strategy;
+
+    private SyncToken token;
+
+    private final List<SyncDelta> delivered = new ArrayList<SyncDelta>();
+
+    private void sync(final SyncToken from) {
+        strategy.sync(from, new SyncResultsHandler() {
+
+            @Override
+            public boolean handle(final SyncDelta delta) {
+                return delivered.add(delta);
+            }
+        }, OPTIONS, ObjectClass.ALL);
+    }
+
+    private List<String> delivered() {
+        final List<String> result = new ArrayList<String>();
+        for (SyncDelta delta : delivered) {
+            result.add(delta.getObject().getObjectClass().getObjectClassValue() + ":" + delta.getUid().getUidValue());
+        }
+        return result;
+    }
+
+    @Before
+    public void setUp() {
+        dc = new USNDomainController(100, 1);
+        strategy = new RecordingSyncStrategy(dc);
+
+        // start from the current state of the (still empty) domain controller
+        sync(null);
+        token = strategy.getLatestSyncToken();
+        assertNotNull(token);
+    }
+
+    @Test
+    public void userChange() {
+        dc.add("alice", "top", "person", "organizationalPerson", "user");
+        sync(token);
+
+        assertEquals(Arrays.asList("U:alice"), strategy.handled);
+        assertEquals(Arrays.asList("__ACCOUNT__:alice"), delivered());
+    }
+
+    @Test
+    public void groupChange() {
+        dc.add("staff", "top", "group");
+        sync(token);
+
+        // each change is read once, and reaches both the account and the group handling
+        assertEquals(2, dc.filters.size());
+        assertEquals(Arrays.asList("U:staff", "G:staff"), strategy.handled);
+        assertEquals(Arrays.asList("__ACCOUNT__:staff", "__GROUP__:staff"), delivered());
+    }
+
+    @Test
+    public void sharedToken() {
+        dc.add("alice", "top", "person", "organizationalPerson", "user");
+        dc.add("staff", "top", "group");
+        dc.add("bob", "top", "person", "organizationalPerson", "user");
+        sync(token);
+
+        assertEquals(
+                Arrays.asList("__ACCOUNT__:alice", "__ACCOUNT__:staff", "__GROUP__:staff", "__ACCOUNT__:bob"),
+                delivered());
+
+        // accounts and groups are read by the same search: one token for both
+        final Set<Object> tokens = new HashSet<Object>();
+        for (SyncDelta delta : delivered) {
+            tokens.add(delta.getToken().getValue());
+        }
+        assertEquals(Arrays.asList(token.getValue()), new ArrayList<Object>(tokens));
+
+        final SyncToken latest = strategy.getLatestSyncToken();
+        assertEquals(dc.getCurrentToken().toSyncToken().getValue(), latest.getValue());
+
+        // next synchronization goes on from there
+        dc.filters.clear();
+        sync(latest);
+        assertEquals(2, dc.filters.size());
+        assertTrue(dc.filters.get(0),
+                dc.filters.get(0).startsWith("(&(uSNChanged>=" + USNSyncToken.getInstance(latest).getUsn() + ")"));
+    }
+}
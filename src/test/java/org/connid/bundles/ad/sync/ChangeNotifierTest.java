@@ -0,0 +1,244 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.sync;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.naming.CommunicationException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+import org.connid.bundles.ad.ADConfiguration;
+import org.connid.bundles.ad.ADConnection;
+import org.junit.Test;
+
+public class ChangeNotifierTest {
+
+    private static final Object END = new Object();
+
+    /**
+     * Notification search fed by the test.
+     */
+    private static class Search {
+
+        private final BlockingQueue<Object> events = new LinkedBlockingQueue<Object>();
+
+        private volatile boolean closed = false;
+
+        public void change(final String dn) {
+            final SearchResult result = new SearchResult(dn, null, new BasicAttributes(true));
+            result.setNameInNamespace(dn);
+            events.add(result);
+        }
+
+        public void fail(final NamingException e) {
+            events.add(e);
+        }
+
+        @SuppressWarnings("unchecked")
+        private NamingEnumeration<SearchResult> answer() {
+            return (NamingEnumeration<SearchResult>) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[]{NamingEnumeration.class},
+                    new InvocationHandler() {
+
+                        private SearchResult next;
+
+                        @Override
+                        public Object invoke(final Object proxy, final Method method, final Object[] args)
+                                throws Exception {
+
+                            if ("hasMore".equals(method.getName())) {
+                                final Object event = events.take();
+                                if (event instanceof NamingException) {
+                                    throw (NamingException) event;
+                                }
+                                next = event == END ? null : (SearchResult) event;
+                                return next != null;
+                            }
+                            if ("next".equals(method.getName())) {
+                                return next;
+                            }
+                            if ("close".equals(method.getName())) {
+                                // abandoning the search ends it
+                                closed = true;
+                                events.add(END);
+                            }
+                            return null;
+                        }
+                    });
+        }
+
+        private LdapContext context() {
+            return (LdapContext) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[]{LdapContext.class},
+                    new InvocationHandler() {
+
+                        @Override
+                        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                            if ("search".equals(method.getName())) {
+                                return answer();
+                            }
+                            if ("close".equals(method.getName())) {
+                                closed = true;
+                                events.add(END);
+                            }
+                            return null;
+                        }
+                    });
+        }
+    }
+
+    private static class NotifyingConnection extends ADConnection {
+
+        private final BlockingQueue<Search> searches = new LinkedBlockingQueue<Search>();
+
+        private final AtomicLong created = new AtomicLong();
+
+        public NotifyingConnection() {
+            super(configuration());
+        }
+
+        private static ADConfiguration configuration() {
+            final ADConfiguration conf = new ADConfiguration();
+            conf.setBaseContextsToSynchronize("DC=test");
+            return conf;
+        }
+
+        @Override
+        public LdapContext createDedicatedContext() {
+            created.incrementAndGet();
+
+            final Search search = new Search();
+            searches.add(search);
+            return search.context();
+        }
+
+        public Search awaitSearch() throws InterruptedException {
+            final Search search = searches.poll(5, TimeUnit.SECONDS);
+            assertNotNull("No notification search established", search);
+            return search;
+        }
+    }
+
+    @Test
+    public void coalescing() throws InterruptedException {
+        final NotifyingConnection conn = new NotifyingConnection();
+        final ChangeNotifier notifier = new ChangeNotifier(conn, 50L, 500L);
+        notifier.start();
+
+        final Search search = conn.awaitSearch();
+
+        // nothing notified: returns once max wait elapsed
+        assertEquals(0L, notifier.awaitNotification(0L, 100L));
+
+        final Thread changes = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 3; i++) {
+                        Thread.sleep(50L);
+                        search.change("CN=user" + i + ",DC=test");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        changes.start();
+
+        // a burst of changes is reported at once
+        assertEquals(3L, notifier.awaitNotification(0L, 5000L));
+
+        // already notified: no wait
+        final long start = System.currentTimeMillis();
+        assertEquals(3L, notifier.awaitNotification(0L, 5000L));
+        assertTrue(System.currentTimeMillis() - start < 1000L);
+
+        notifier.close();
+    }
+
+    @Test
+    public void retry() throws InterruptedException {
+        final NotifyingConnection conn = new NotifyingConnection();
+        final ChangeNotifier notifier = new ChangeNotifier(conn, 50L, 10L);
+        notifier.start();
+
+        final Search first = conn.awaitSearch();
+        first.fail(new CommunicationException("connection lost"));
+
+        // changes might have been missed meanwhile: counted as a notification
+        assertEquals(1L, notifier.awaitNotification(0L, 5000L));
+
+        // search established again, on a new connection
+        final Search second = conn.awaitSearch();
+        assertTrue(first.closed);
+
+        second.change("CN=user,DC=test");
+        assertEquals(2L, notifier.awaitNotification(1L, 5000L));
+
+        notifier.close();
+    }
+
+    @Test
+    public void close() throws InterruptedException {
+        final NotifyingConnection conn = new NotifyingConnection();
+        final ChangeNotifier notifier = new ChangeNotifier(conn, 50L, 10L);
+        notifier.start();
+
+        final Search search = conn.awaitSearch();
+
+        final AtomicLong result = new AtomicLong(-1L);
+        final Thread waiting = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                result.set(notifier.awaitNotification(0L, 60000L));
+            }
+        });
+        waiting.start();
+        Thread.sleep(100L);
+
+        notifier.close();
+
+        // waiting callers are released, searches abandoned and not established again
+        waiting.join(5000L);
+        assertFalse(waiting.isAlive());
+        assertEquals(0L, result.get());
+        assertTrue(search.closed);
+
+        Thread.sleep(200L);
+        assertEquals(1L, conn.created.get());
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.sync;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointJournalTest {
+
+    private File file;
+
+    @Before
+    public void init() throws IOException {
+        file = File.createTempFile("checkpoints", ".journal");
+        file.delete();
+    }
+
+    @After
+    public void cleanup() {
+        file.delete();
+    }
+
+    @Test
+    public void resume() throws IOException {
+        CheckpointJournal journal = new CheckpointJournal(file);
+        assertNull(journal.begin(null));
+
+        journal.dispatched("user:1", 1);
+        journal.checkpoint(new SyncToken(new byte[]{1}));
+        journal.dispatched("user:2", 2);
+        journal.dispatched("user:3", 3);
+        journal.close();
+
+        // caller did not receive any token
+        journal = new CheckpointJournal(file);
+        assertArrayEquals(new byte[]{1}, (byte[]) journal.begin(null).getValue());
+        assertFalse(journal.isDispatched("user:1", 1));
+        assertTrue(journal.isDispatched("user:2", 2));
+        assertTrue(journal.isDispatched("user:3", 3));
+
+        // changed since delivered
+        assertFalse(journal.isDispatched("user:3", 4));
+
+        journal.checkpoint(new SyncToken(new byte[]{2}));
+        journal.close();
+
+        // caller received the first checkpoint only
+        journal = new CheckpointJournal(file);
+        assertArrayEquals(new byte[]{2}, (byte[]) journal.begin(new SyncToken(new byte[]{1})).getValue());
+        assertFalse(journal.isDispatched("user:2", 2));
+        journal.close();
+    }
+
+    @Test
+    public void startOver() throws IOException {
+        CheckpointJournal journal = new CheckpointJournal(file);
+        journal.begin(new SyncToken("USN:a:1"));
+        journal.checkpoint(new SyncToken("USN:a:2"));
+        journal.dispatched("group:1", 1);
+        journal.close();
+
+        // unknown token: journal is not relevant anymore
+        journal = new CheckpointJournal(file);
+        assertEquals("USN:a:5", journal.begin(new SyncToken("USN:a:5")).getValue());
+        assertFalse(journal.isDispatched("group:1", 1));
+        journal.close();
+    }
+
+    @Test
+    public void incompleteRecord() throws IOException {
+        CheckpointJournal journal = new CheckpointJournal(file);
+        journal.begin(null);
+        journal.checkpoint(new SyncToken(new byte[]{1}));
+        journal.dispatched("user:1", 1);
+        journal.close();
+
+        // crash while appending a record
+        final FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[]{1, 0, 0, 0, 10, 1});
+        out.close();
+
+        journal = new CheckpointJournal(file);
+        assertArrayEquals(new byte[]{1}, (byte[]) journal.begin(null).getValue());
+        assertTrue(journal.isDispatched("user:1", 1));
+        journal.close();
+    }
+
+    @Test
+    public void journalPerObjectClass() {
+        final File account = ADSyncStrategy.getJournalFile("/var/lib/ad/sync.journal", ObjectClass.ACCOUNT);
+        final File group = ADSyncStrategy.getJournalFile("/var/lib/ad/sync.journal", ObjectClass.GROUP);
+        final File all = ADSyncStrategy.getJournalFile("/var/lib/ad/sync.journal", ObjectClass.ALL);
+
+        assertEquals(new File("/var/lib/ad/sync.journal.account"), account);
+        assertEquals(new File("/var/lib/ad/sync.journal.group"), group);
+        assertEquals(new File("/var/lib/ad/sync.journal.all"), all);
+    }
+}
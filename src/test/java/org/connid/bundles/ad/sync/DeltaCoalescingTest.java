@@ -0,0 +1,139 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.sync;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import org.connid.bundles.ad.ADConnector;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncDeltaBuilder;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.junit.Test;
+
+public class DeltaCoalescingTest {
+
+    private static final SyncToken TOKEN = new SyncToken("token");
+
+    private static SyncDelta delta(
+            final ObjectClass oclass, final String uid, final List<String> added, final List<String> removed) {
+
+        final ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+        builder.setObjectClass(oclass);
+        builder.setUid(uid);
+        builder.setName(uid);
+        if (added != null) {
+            builder.addAttribute(AttributeBuilder.build(ADConnector.MEMBERS_ADDED_ATTR, added));
+        }
+        if (removed != null) {
+            builder.addAttribute(AttributeBuilder.build(ADConnector.MEMBERS_REMOVED_ATTR, removed));
+        }
+
+        return new SyncDeltaBuilder().setToken(TOKEN).setDeltaType(SyncDeltaType.CREATE_OR_UPDATE).
+                setObject(builder.build()).build();
+    }
+
+    private static SyncDelta delete(final ObjectClass oclass, final String uid) {
+        final ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+        builder.setObjectClass(oclass);
+        builder.setUid(uid);
+        builder.setName(uid);
+
+        return new SyncDeltaBuilder().setToken(TOKEN).setDeltaType(SyncDeltaType.DELETE).
+                setObject(builder.build()).build();
+    }
+
+    private static List<Object> values(final SyncDelta delta, final String attrName) {
+        return delta.getObject().getAttributeByName(attrName).getValue();
+    }
+
+    @Test
+    public void lastDeltaWins() {
+        final List<SyncDelta> deltas = new ArrayList<SyncDelta>();
+        deltas.add(delta(ObjectClass.ACCOUNT, "user1", null, null));
+        deltas.add(delta(ObjectClass.ACCOUNT, "user2", null, null));
+        final SyncDelta last = delta(ObjectClass.ACCOUNT, "user1", null, null);
+        deltas.add(last);
+        // same uid, other object class: not the same object
+        deltas.add(delta(ObjectClass.GROUP, "user1", null, null));
+
+        final Iterator<SyncDelta> coalesced = ADSyncStrategy.coalesce(deltas).iterator();
+        assertSame(deltas.get(1), coalesced.next());
+        assertSame(last, coalesced.next());
+        assertSame(deltas.get(3), coalesced.next());
+        assertFalse(coalesced.hasNext());
+    }
+
+    @Test
+    public void membershipChangesMerged() {
+        final List<SyncDelta> deltas = new ArrayList<SyncDelta>();
+        deltas.add(delta(ObjectClass.GROUP, "group", Arrays.asList("a", "b"), Arrays.asList("c")));
+        deltas.add(delta(ObjectClass.GROUP, "group", Arrays.asList("c"), Arrays.asList("b", "d")));
+
+        final List<SyncDelta> coalesced = new ArrayList<SyncDelta>(ADSyncStrategy.coalesce(deltas));
+        assertEquals(1, coalesced.size());
+
+        final ConnectorObject group = coalesced.get(0).getObject();
+        assertEquals("group", group.getUid().getUidValue());
+        assertEquals(TOKEN, coalesced.get(0).getToken());
+
+        // the last change about each member wins
+        assertEquals(new HashSet<Object>(Arrays.asList("a", "c")),
+                new HashSet<Object>(values(coalesced.get(0), ADConnector.MEMBERS_ADDED_ATTR)));
+        assertEquals(new HashSet<Object>(Arrays.asList("b", "d")),
+                new HashSet<Object>(values(coalesced.get(0), ADConnector.MEMBERS_REMOVED_ATTR)));
+    }
+
+    @Test
+    public void membershipChangesKeptByFullUpdate() {
+        final List<SyncDelta> deltas = new ArrayList<SyncDelta>();
+        deltas.add(delta(ObjectClass.GROUP, "group", Arrays.asList("a"), null));
+        deltas.add(delta(ObjectClass.GROUP, "group", null, null));
+
+        final List<SyncDelta> coalesced = new ArrayList<SyncDelta>(ADSyncStrategy.coalesce(deltas));
+        assertEquals(1, coalesced.size());
+        assertEquals(Arrays.<Object>asList("a"), values(coalesced.get(0), ADConnector.MEMBERS_ADDED_ATTR));
+        assertTrue(values(coalesced.get(0), ADConnector.MEMBERS_REMOVED_ATTR).isEmpty());
+    }
+
+    @Test
+    public void deletionWins() {
+        final List<SyncDelta> deltas = new ArrayList<SyncDelta>();
+        deltas.add(delta(ObjectClass.GROUP, "group", Arrays.asList("a"), null));
+        final SyncDelta deletion = delete(ObjectClass.GROUP, "group");
+        deltas.add(deletion);
+
+        final List<SyncDelta> coalesced = new ArrayList<SyncDelta>(ADSyncStrategy.coalesce(deltas));
+        assertEquals(1, coalesced.size());
+        assertSame(deletion, coalesced.get(0));
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.sync;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeltaHandlingTest {
+
+    private static final OperationOptions OPTIONS =
+            new OperationOptionsBuilder().setAttributesToGet("__NAME__").build();
+
+    private static final int ENTRIES = 10;
+
+    private USNDomainController dc;
+
+    private RecordingSyncStrategy strategy;
+
+    private SyncToken token;
+
+    @Before
+    public void setUp() {
+        dc = new USNDomainController(100, 4);
+        strategy = new RecordingSyncStrategy(dc);
+
+        // start from the current state of the (still empty) domain controller
+        strategy.sync(null, new SyncResultsHandler() {
+
+            @Override
+            public boolean handle(final SyncDelta delta) {
+                return true;
+            }
+        }, OPTIONS, ObjectClass.ACCOUNT);
+        token = strategy.getLatestSyncToken();
+        assertNotNull(token);
+
+        for (int i = 0; i < ENTRIES; i++) {
+            dc.add("user" + i, "user");
+        }
+    }
+
+    @Test
+    public void deltasInOrder() {
+        // later entries are handled first
+        for (int i = 0; i < ENTRIES; i++) {
+            strategy.delays.put("user" + i, (ENTRIES - i) * 20L);
+        }
+
+        final List<String> delivered = new ArrayList<String>();
+        strategy.sync(token, new SyncResultsHandler() {
+
+            @Override
+            public boolean handle(final SyncDelta delta) {
+                return delivered.add(delta.getUid().getUidValue());
+            }
+        }, OPTIONS, ObjectClass.ACCOUNT);
+
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < ENTRIES; i++) {
+            expected.add("user" + i);
+        }
+        assertEquals(expected, delivered);
+    }
+
+    @Test
+    public void tokenUpdatedAfterLastDelta() {
+        final List<String> tokensSeen = new ArrayList<String>();
+        strategy.sync(token, new SyncResultsHandler() {
+
+            @Override
+            public boolean handle(final SyncDelta delta) {
+                tokensSeen.add(delta.getToken().getValue().toString());
+                tokensSeen.add(strategy.getLatestSyncToken().getValue().toString());
+                return true;
+            }
+        }, OPTIONS, ObjectClass.ACCOUNT);
+
+        assertEquals(2 * ENTRIES, tokensSeen.size());
+        for (String seen : tokensSeen) {
+            assertEquals(token.getValue(), seen);
+        }
+
+        assertEquals(dc.getCurrentToken().toSyncToken().getValue(), strategy.getLatestSyncToken().getValue());
+        assertFalse(token.getValue().equals(strategy.getLatestSyncToken().getValue()));
+    }
+
+    @Test
+    public void failureStopsHandling() {
+        strategy.failing = "user0";
+        for (int i = 1; i < ENTRIES; i++) {
+            strategy.delays.put("user" + i, 200L);
+        }
+
+        final List<SyncDelta> delivered = new ArrayList<SyncDelta>();
+        try {
+            strategy.sync(token, new SyncResultsHandler() {
+
+                @Override
+                public boolean handle(final SyncDelta delta) {
+                    return delivered.add(delta);
+                }
+            }, OPTIONS, ObjectClass.ACCOUNT);
+            fail("Failure handling user0 expected");
+        } catch (ConnectorException e) {
+            assertEquals("Failure handling user0", e.getMessage());
+        }
+
+        // deltas of the batch are delivered all or none, and pending handling is cancelled
+        assertTrue(delivered.isEmpty());
+        assertEquals(token.getValue(), strategy.getLatestSyncToken().getValue());
+        assertTrue(strategy.handled.size() < ENTRIES);
+        assertTrue(strategy.handled.containsAll(Arrays.asList("U:user0")));
+    }
+}
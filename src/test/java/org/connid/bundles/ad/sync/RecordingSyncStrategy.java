@@ -0,0 +1,128 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.sync;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.SyncDeltaBuilder;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Synchronization reporting each changed entry as a CREATE_OR_UPDATE - or DELETE, if deleted - delta named after its
+ * <tt>cn</tt>, and
+ * recording the entries handled as accounts (<tt>U:cn</tt>) and as groups (<tt>G:cn</tt>).
+ */
+class RecordingSyncStrategy extends ADSyncStrategy {
+
+    /**
+     * Entries handled so far, in the order handling started.
+     */
+    final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Time to take handling each entry, by <tt>cn</tt>.
+     */
+    final Map<String, Long> delays = new HashMap<String, Long>();
+
+    /**
+     * <tt>cn</tt> of the entry whose handling fails, if any.
+     */
+    String failing;
+
+    RecordingSyncStrategy(final USNDomainController dc) {
+        super(dc);
+    }
+
+    @Override
+    void handleSyncUDelta(
+            final LdapContext ctx,
+            final SearchResult result,
+            final Attributes hydrated,
+            final Collection<String> attrsToGet,
+            final SyncResultsHandler handler)
+            throws NamingException {
+
+        handle("U", ObjectClass.ACCOUNT, result, handler);
+    }
+
+    @Override
+    void handleSyncGDelta(
+            final LdapContext ctx,
+            final SearchResult result,
+            final Attributes hydrated,
+            final Collection<String> attrsToGet,
+            final SyncResultsHandler handler)
+            throws NamingException {
+
+        handle("G", ObjectClass.GROUP, result, handler);
+    }
+
+    private void handle(
+            final String kind, final ObjectClass oclass, final SearchResult result, final SyncResultsHandler handler)
+            throws NamingException {
+
+        final String cn = result.getAttributes().get("cn").get().toString();
+        handled.add(kind + ":" + cn);
+
+        final Long delay = delays.get(cn);
+        if (delay != null) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectorException("Interrupted while handling " + cn, e);
+            }
+        }
+
+        if (cn.equals(failing)) {
+            throw new ConnectorException("Failure handling " + cn);
+        }
+
+        final ConnectorObjectBuilder bld = new ConnectorObjectBuilder();
+        bld.setObjectClass(oclass);
+        bld.setUid(cn);
+        bld.setName(cn);
+
+        final SyncDeltaBuilder sdb = new SyncDeltaBuilder();
+        sdb.setToken(getLatestSyncToken());
+        sdb.setDeltaType(result.getAttributes().get("isDeleted") == null
+                ? SyncDeltaType.CREATE_OR_UPDATE : SyncDeltaType.DELETE);
+        sdb.setUid(new Uid(cn));
+        sdb.setObject(bld.build());
+
+        handler.handle(sdb.build());
+    }
+}
@@ -0,0 +1,301 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.sync;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import org.connid.bundles.ad.ADConfiguration;
+import org.connid.bundles.ad.ADConnection;
+import org.connid.bundles.ad.util.DirSyncUtils;
+import org.connid.bundles.ldap.schema.LdapSchemaMapping;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * Domain controller read by uSNChanged sync: searches return, whatever the filter, either all of the live entries
+ * below the search base or - from the Deleted Objects container - all of the deleted ones, <tt>blockSize</tt>
+ * entries per page.
+ */
+class USNDomainController extends ADConnection {
+
+    static final String BASE_CONTEXT = "DC=test";
+
+    private static final String DS_SERVICE_NAME = "CN=NTDS Settings,CN=DC1,DC=test";
+
+    private final byte[] invocationId = new byte[16];
+
+    private long highestCommittedUSN = 100L;
+
+    private final List<SearchResult> entries = new ArrayList<SearchResult>();
+
+    /**
+     * Filters of the searches issued so far.
+     */
+    final List<String> filters = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Attributes requested by the searches issued so far.
+     */
+    final List<String[]> returningAttributes = Collections.synchronizedList(new ArrayList<String[]>());
+
+    USNDomainController(final int blockSize, final int hydrationThreads) {
+        super(configuration(blockSize, hydrationThreads));
+
+        invocationId[0] = 1;
+    }
+
+    private static ADConfiguration configuration(final int blockSize, final int hydrationThreads) {
+        final ADConfiguration conf = new ADConfiguration();
+        conf.setUsnChangedSync(true);
+        conf.setBaseContextsToSynchronize(BASE_CONTEXT);
+        conf.setBlockSize(blockSize);
+        conf.setHydrationThreads(hydrationThreads);
+        return conf;
+    }
+
+    /**
+     * Add an entry below the base context, changed by the next USN.
+     */
+    void add(final String name, final String... objectClasses) {
+        addBelow(BASE_CONTEXT, name, objectClasses);
+    }
+
+    /**
+     * Add an entry below the given parent, changed by the next USN.
+     */
+    synchronized void addBelow(final String parentDn, final String name, final String... objectClasses) {
+        highestCommittedUSN++;
+
+        final byte[] guid = new byte[16];
+        guid[0] = (byte) (entries.size() + 1);
+
+        final BasicAttributes attrs = new BasicAttributes(true);
+        attrs.put("objectGUID", guid);
+        final BasicAttribute objectClass = new BasicAttribute("objectClass");
+        for (String value : objectClasses) {
+            objectClass.add(value);
+        }
+        attrs.put(objectClass);
+        attrs.put("cn", name);
+
+        final String dn = "CN=" + name + "," + parentDn;
+        attrs.put("distinguishedName", dn);
+
+        final SearchResult result = new SearchResult("CN=" + name, null, attrs);
+        result.setNameInNamespace(dn);
+        entries.add(result);
+    }
+
+    /**
+     * Delete the given entry, changed by the next USN: it is moved to the Deleted Objects container.
+     */
+    synchronized void delete(final String name) throws NamingException {
+        highestCommittedUSN++;
+
+        for (SearchResult entry : entries) {
+            final Attributes attrs = entry.getAttributes();
+            if (name.equals(attrs.get("cn").get())) {
+                final String dn = entry.getNameInNamespace();
+                attrs.put("isDeleted", "TRUE");
+                attrs.put("lastKnownParent", dn.substring(dn.indexOf(',') + 1));
+
+                final String tombstone = "CN=" + name + "\\0ADEL:" + DirSyncUtils.getGuidAsString(
+                        (byte[]) attrs.get("objectGUID").get()) + ",CN=Deleted Objects," + BASE_CONTEXT;
+                attrs.put("distinguishedName", tombstone);
+                entry.setNameInNamespace(tombstone);
+            }
+        }
+    }
+
+    String getInvocationId() {
+        return DirSyncUtils.getGuidAsString(invocationId);
+    }
+
+    /**
+     * Token as returned by a synchronization which read everything.
+     */
+    synchronized USNSyncToken getCurrentToken() {
+        return new USNSyncToken(getInvocationId(), highestCommittedUSN + 1);
+    }
+
+    @Override
+    public LdapContext borrowContext() {
+        return context();
+    }
+
+    @Override
+    public void returnContext(final LdapContext ctx, final boolean broken) {
+        // nothing to release
+    }
+
+    @Override
+    public LdapSchemaMapping getSchemaMapping() {
+        return new LdapSchemaMapping(this) {
+
+            @Override
+            public void removeNonReadableAttributes(final ObjectClass oclass, final Set<String> attrNames) {
+                // everything is readable
+            }
+
+            @Override
+            public Set<String> getLdapAttributes(
+                    final ObjectClass oclass, final Set<String> attrs, final boolean transfer) {
+
+                // __NAME__ is cn, other attributes are named the same
+                final Set<String> ldapAttrs = new HashSet<String>();
+                for (String attr : attrs) {
+                    ldapAttrs.add(Name.NAME.equals(attr) ? "cn" : attr);
+                }
+                return ldapAttrs;
+            }
+        };
+    }
+
+    private LdapContext context() {
+        return (LdapContext) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{LdapContext.class},
+                new InvocationHandler() {
+
+                    private int page = 0;
+
+                    private boolean more = false;
+
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args)
+                            throws IOException {
+
+                        final String name = method.getName();
+
+                        if ("newInstance".equals(name)) {
+                            return context();
+                        }
+                        if ("setRequestControls".equals(name)) {
+                            page = 0;
+                            for (Control control : (Control[]) args[0]) {
+                                if (control instanceof PagedResultsControl) {
+                                    page = getPage(control.getEncodedValue());
+                                }
+                            }
+                            return null;
+                        }
+                        if ("search".equals(name) && args.length == 3) {
+                            filters.add((String) args[1]);
+                            returningAttributes.add(((SearchControls) args[2]).getReturningAttributes());
+
+                            final List<SearchResult> found = search((String) args[0]);
+
+                            final int blockSize = ((ADConfiguration) getConfiguration()).getBlockSize();
+                            final int from = Math.min(page * blockSize, found.size());
+                            final int to = Math.min(from + blockSize, found.size());
+                            more = to < found.size();
+
+                            return enumeration(found.subList(from, to).iterator());
+                        }
+                        if ("getResponseControls".equals(name)) {
+                            return new Control[]{new PagedResultsResponseControl(
+                                PagedResultsResponseControl.OID, false,
+                                more ? new byte[]{0x30, 0x06, 0x02, 0x01, 0x00, 0x04, 0x01, (byte) (page + 1)}
+                                : new byte[]{0x30, 0x05, 0x02, 0x01, 0x00, 0x04, 0x00})};
+                        }
+                        if ("getAttributes".equals(name) && "".equals(args[0])) {
+                            final BasicAttributes rootDSE = new BasicAttributes(true);
+                            rootDSE.put("highestCommittedUSN", Long.toString(getCurrentToken().getUsn() - 1));
+                            rootDSE.put("dsServiceName", DS_SERVICE_NAME);
+                            return rootDSE;
+                        }
+                        if ("getAttributes".equals(name) && DS_SERVICE_NAME.equals(args[0])) {
+                            return new BasicAttributes("invocationId", invocationId, true);
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private synchronized List<SearchResult> search(final String base) {
+        final boolean deletedObjects = base.startsWith("<WKGUID=");
+
+        final List<SearchResult> found = new ArrayList<SearchResult>();
+        for (SearchResult entry : entries) {
+            final boolean deleted = entry.getAttributes().get("isDeleted") != null;
+            final String dn = entry.getNameInNamespace().toLowerCase();
+
+            if (deletedObjects
+                    ? deleted
+                    : !deleted && (dn.equals(base.toLowerCase()) || dn.endsWith("," + base.toLowerCase()))) {
+
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Page requested by the given paged results control value: the cookie, if any, is the page number.
+     */
+    private static int getPage(final byte[] value) {
+        // SEQUENCE { INTEGER size, OCTET STRING cookie }
+        final int cookieLengthIdx = 2 + 2 + value[3] + 1;
+        return value[cookieLengthIdx] == 0 ? 0 : value[cookieLengthIdx + 1];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static NamingEnumeration<SearchResult> enumeration(final Iterator<SearchResult> results) {
+        return (NamingEnumeration<SearchResult>) Proxy.newProxyInstance(
+                USNDomainController.class.getClassLoader(),
+                new Class<?>[]{NamingEnumeration.class},
+                new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        final String name = method.getName();
+                        if ("hasMore".equals(name) || "hasMoreElements".equals(name)) {
+                            return results.hasNext();
+                        }
+                        if ("next".equals(name) || "nextElement".equals(name)) {
+                            return results.next();
+                        }
+                        return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.sync;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.naming.NamingException;
+import org.connid.bundles.ad.ADConfiguration;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.junit.Test;
+
+public class USNSyncTest {
+
+    private static final OperationOptions OPTIONS =
+            new OperationOptionsBuilder().setAttributesToGet("__NAME__").build();
+
+    private static List<String> sync(
+            final RecordingSyncStrategy strategy, final SyncToken token, final int stopAfter) {
+
+        final List<String> delivered = new ArrayList<String>();
+        strategy.sync(token, new SyncResultsHandler() {
+
+            @Override
+            public boolean handle(final SyncDelta delta) {
+                delivered.add(delta.getUid().getUidValue());
+                return delivered.size() != stopAfter;
+            }
+        }, OPTIONS, ObjectClass.ACCOUNT);
+
+        return delivered;
+    }
+
+    /**
+     * Strategy which synchronized the given domain controller while still empty: deltas carry the token issued then.
+     */
+    private static RecordingSyncStrategy strategy(final USNDomainController dc, final int entries) {
+        final RecordingSyncStrategy strategy = new RecordingSyncStrategy(dc);
+        sync(strategy, null, -1);
+        assertNotNull(strategy.getLatestSyncToken());
+
+        for (int i = 0; i < entries; i++) {
+            dc.add("user" + i, "user");
+        }
+        return strategy;
+    }
+
+    @Test
+    public void fromToken() {
+        final USNDomainController dc = new USNDomainController(100, 1);
+        final RecordingSyncStrategy strategy = strategy(dc, 3);
+
+        final SyncToken token = new USNSyncToken(dc.getInvocationId(), 42L).toSyncToken();
+        assertEquals(3, sync(strategy, token, -1).size());
+
+        assertEquals(2, dc.filters.size());
+        assertTrue(dc.filters.get(0), dc.filters.get(0).startsWith("(&(uSNChanged>=42)(uSNChanged<=103)"));
+
+        // only the attributes needed to handle deltas are read
+        final List<String> attrs = Arrays.asList(dc.returningAttributes.get(0));
+        assertTrue(attrs.toString(), attrs.containsAll(
+                Arrays.asList("cn", "objectGUID", "isDeleted", "uSNChanged", "lastKnownParent", "objectClass")));
+        assertFalse(attrs.toString(), attrs.contains("description"));
+        assertEquals(dc.getCurrentToken().toSyncToken().getValue(), strategy.getLatestSyncToken().getValue());
+    }
+
+    @Test
+    public void otherDomainControllerFromToday() {
+        final USNDomainController dc = new USNDomainController(100, 1);
+        final RecordingSyncStrategy strategy = strategy(dc, 3);
+
+        final SyncToken token = new USNSyncToken("00000000-0000-0000-0000-000000000002", 42L).toSyncToken();
+        assertTrue(sync(strategy, token, -1).isEmpty());
+
+        assertTrue(dc.filters.isEmpty());
+        assertEquals(dc.getCurrentToken().toSyncToken().getValue(), strategy.getLatestSyncToken().getValue());
+    }
+
+    @Test
+    public void otherDomainController() {
+        final USNDomainController dc = new USNDomainController(100, 1);
+        final RecordingSyncStrategy strategy = strategy(dc, 3);
+        ((ADConfiguration) dc.getConfiguration()).setStartSyncFromToday(false);
+
+        // USN values of another domain controller mean nothing here: everything is read again
+        final SyncToken token = new USNSyncToken("00000000-0000-0000-0000-000000000002", 42L).toSyncToken();
+        assertEquals(3, sync(strategy, token, -1).size());
+
+        assertEquals(2, dc.filters.size());
+        assertTrue(dc.filters.get(0), dc.filters.get(0).startsWith("(&(uSNChanged>=0)(uSNChanged<=103)"));
+
+        final USNSyncToken latest = USNSyncToken.getInstance(strategy.getLatestSyncToken());
+        assertEquals(dc.getInvocationId(), latest.getInvocationId());
+        assertEquals(104L, latest.getUsn());
+    }
+
+    @Test
+    public void paging() {
+        final USNDomainController dc = new USNDomainController(2, 1);
+        final RecordingSyncStrategy strategy = strategy(dc, 5);
+        final SyncToken token = strategy.getLatestSyncToken();
+
+        final List<String> tokensSeen = new ArrayList<String>();
+        final List<String> delivered = new ArrayList<String>();
+        strategy.sync(token, new SyncResultsHandler() {
+
+            @Override
+            public boolean handle(final SyncDelta delta) {
+                tokensSeen.add(delta.getToken().getValue().toString());
+                tokensSeen.add(strategy.getLatestSyncToken().getValue().toString());
+                return delivered.add(delta.getUid().getUidValue());
+            }
+        }, OPTIONS, ObjectClass.ACCOUNT);
+
+        // three pages of live entries, one (empty) of deleted ones
+        assertEquals(4, dc.filters.size());
+
+        final List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            expected.add("user" + i);
+        }
+        assertEquals(expected, delivered);
+
+        // uSNChanged values are not read in order: the token is not advanced until the last page has been handled
+        assertEquals(10, tokensSeen.size());
+        for (String seen : tokensSeen) {
+            assertEquals(token.getValue(), seen);
+        }
+        assertEquals(dc.getCurrentToken().toSyncToken().getValue(), strategy.getLatestSyncToken().getValue());
+    }
+
+    @Test
+    public void stoppedByHandler() {
+        final USNDomainController dc = new USNDomainController(2, 1);
+        final RecordingSyncStrategy strategy = strategy(dc, 5);
+        final SyncToken token = strategy.getLatestSyncToken();
+
+        assertEquals(1, sync(strategy, token, 1).size());
+
+        assertEquals(1, dc.filters.size());
+        assertEquals(token.getValue(), strategy.getLatestSyncToken().getValue());
+    }
+
+    @Test
+    public void deletionBelowOU() throws NamingException {
+        final USNDomainController dc = new USNDomainController(100, 1);
+        ((ADConfiguration) dc.getConfiguration()).setBaseContextsToSynchronize("OU=People,DC=test");
+        final RecordingSyncStrategy strategy = strategy(dc, 0);
+        final SyncToken token = strategy.getLatestSyncToken();
+
+        dc.addBelow("OU=People,DC=test", "alice", "user");
+        dc.addBelow("OU=People,DC=test", "bob", "user");
+        dc.addBelow("OU=Other,DC=test", "carol", "user");
+        dc.delete("alice");
+        dc.delete("carol");
+
+        final List<SyncDelta> delivered = new ArrayList<SyncDelta>();
+        strategy.sync(token, new SyncResultsHandler() {
+
+            @Override
+            public boolean handle(final SyncDelta delta) {
+                return delivered.add(delta);
+            }
+        }, OPTIONS, ObjectClass.ACCOUNT);
+
+        // alice is no longer below the base context, but was last seen there: carol was not
+        assertEquals(2, delivered.size());
+        assertEquals("bob", delivered.get(0).getUid().getUidValue());
+        assertEquals(SyncDeltaType.CREATE_OR_UPDATE, delivered.get(0).getDeltaType());
+        assertEquals("alice", delivered.get(1).getUid().getUidValue());
+        assertEquals(SyncDeltaType.DELETE, delivered.get(1).getDeltaType());
+
+        assertEquals(2, dc.filters.size());
+        assertTrue(dc.filters.get(0), dc.filters.get(0).contains("(!(isDeleted=TRUE))"));
+        assertTrue(dc.filters.get(1), dc.filters.get(1).contains("(isDeleted=TRUE)"));
+    }
+
+    @Test
+    public void deletedObjectsContainer() {
+        assertEquals("<WKGUID=18E2EA80684F11D2B9AA00C04F79F805,DC=example,DC=com>",
+                ADSyncStrategy.getDeletedObjectsContainer("OU=People,OU=Staff,DC=example,DC=com"));
+        assertEquals("<WKGUID=18E2EA80684F11D2B9AA00C04F79F805,DC=example,DC=com>",
+                ADSyncStrategy.getDeletedObjectsContainer("DC=example,DC=com"));
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * ====================
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright 2008-2009 Sun Microsystems, Inc. All rights reserved.
+ * Copyright 2011-2013 Tirasa. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of the Common Development
+ * and Distribution License("CDDL") (the "License"). You may not use this file
+ * except in compliance with the License.
+ *
+ * You can obtain a copy of the License at https://oss.oracle.com/licenses/CDDL
+ * See the License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * When distributing the Covered Code, include this CDDL Header Notice in each file
+ * and include the License file at https://oss.oracle.com/licenses/CDDL.
+ * If applicable, add the following below this CDDL Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ * ====================
+ */
+package org.connid.bundles.ad.util;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.LdapContext;
+import org.junit.Test;
+
+public class RangedMembersTest {
+
+    private static final String GROUP_DN = "CN=large,OU=groups,DC=test";
+
+    private static final int MEMBERS = 5;
+
+    private static final int RANGE_SIZE = 2;
+
+    private static BasicAttribute range(final int from) {
+        final int to = Math.min(from + RANGE_SIZE, MEMBERS) - 1;
+        final BasicAttribute range = new BasicAttribute("member;range=" + from + "-" + (to == MEMBERS - 1 ? "*" : to));
+        for (int i = from; i <= to; i++) {
+            range.add("CN=m" + i + ",OU=people,DC=test");
+        }
+        return range;
+    }
+
+    /**
+     * Serves the member values of a large group, <tt>RANGE_SIZE</tt> at a time, recording the ranges requested.
+     */
+    private static LdapContext context(final List<String> requested) {
+        return (LdapContext) Proxy.newProxyInstance(
+                RangedMembersTest.class.getClassLoader(),
+                new Class<?>[]{LdapContext.class},
+                new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        if ("getAttributes".equals(method.getName())) {
+                            assertEquals(GROUP_DN, args[0]);
+
+                            final String attr = ((String[]) args[1])[0];
+                            requested.add(attr);
+
+                            final int from = Integer.parseInt(attr.substring(attr.indexOf('=') + 1, attr.indexOf('-')));
+                            final BasicAttributes attrs = new BasicAttributes(true);
+                            if (from < MEMBERS) {
+                                attrs.put(range(from));
+                            }
+                            return attrs;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private static Map<String, Set<String>> groupsByMember(final String... entryDNs) {
+        final Map<String, Set<String>> result = new TreeMap<String, Set<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (String entryDN : entryDNs) {
+            result.put(entryDN, new HashSet<String>());
+        }
+        return result;
+    }
+
+    @Test
+    public void followingRanges() throws NamingException {
+        final Map<String, Set<String>> result = groupsByMember(
+                "CN=m3,OU=people,DC=test", "cn=M4,ou=people,dc=test", "CN=other,OU=people,DC=test");
+        final List<String> requested = new ArrayList<String>();
+
+        // first range already returned by the search: each following one is read once for all the entries
+        ADUtilities.addRangedMembers(context(requested), GROUP_DN, range(0), "member", result);
+
+        assertEquals(2, requested.size());
+        assertEquals("member;range=2-*", requested.get(0));
+        assertEquals("member;range=4-*", requested.get(1));
+
+        assertTrue(result.get("CN=m3,OU=people,DC=test").contains(GROUP_DN));
+        assertTrue(result.get("cn=M4,ou=people,dc=test").contains(GROUP_DN));
+        assertTrue(result.get("CN=other,OU=people,DC=test").isEmpty());
+    }
+
+    @Test
+    public void fromFirstRange() throws NamingException {
+        final Map<String, Set<String>> result = groupsByMember("CN=m0,OU=people,DC=test");
+        final List<String> requested = new ArrayList<String>();
+
+        ADUtilities.addRangedMembers(context(requested), GROUP_DN, null, "member", result);
+
+        assertEquals(3, requested.size());
+        assertEquals("member;range=0-*", requested.get(0));
+        assertTrue(result.get("CN=m0,OU=people,DC=test").contains(GROUP_DN));
+    }
+}